@@ -0,0 +1,355 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.Bootstrap;
+import it.multicoredev.discord.cluster.ConsistentHashRing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ClusterHarness {
+    private final Map<String, String> options;
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Long> guilds = new ArrayList<>();
+    private int shards;
+    private long deadline;
+
+    /**
+     * Checks that a queue survives the loss of the node serving it. Starts several bot processes in cluster mode on the
+     * local gateway, which pretends to serve a fixed list of guilds, fills the queue of every guild through the nodes'
+     * consoles, then stops the node owning the first guild and waits until another node serves each of its guilds with
+     * the same queue.
+     * <p>
+     * java -cp target/benchmarks.jar it.multicoredev.discord.benchmarks.ClusterHarness [--option value]...
+     * <ul>
+     * <li>--nodes 3, --shards 4, --guilds 8, --tracks 5: processes, shards, guilds and tracks queued per guild</li>
+     * <li>--kill: kill the owner instead of stopping it; its shards are taken over once its heartbeat times out and,
+     * the journal being local to every node, its queues are only checked to be served again, empty</li>
+     * <li>--flush-interval 200, --lease-timeout 3: journal.flush-interval and cluster.timeout of every node</li>
+     * <li>--timeout 60: seconds every step may take</li>
+     * <li>--directory dir: where the nodes run, a temporary directory otherwise</li>
+     * </ul>
+     * Exits with 1 if a queue was not adopted; the nodes' logs stay in their directories.
+     */
+    public ClusterHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+
+            String name = args[i].substring(2);
+            options.put(name, i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true");
+        }
+
+        ClusterHarness harness = new ClusterHarness(options);
+        boolean adopted;
+        try {
+            adopted = harness.run();
+        } finally {
+            harness.close();
+        }
+
+        System.exit(adopted ? 0 : 1);
+    }
+
+    public boolean run() throws IOException, InterruptedException {
+        shards = getInt("shards", 4);
+        String path = options.get("directory");
+        File directory = path == null ? Files.createTempDirectory("musiccore-cluster").toFile() : new File(path);
+        File shared = new File(directory, "shared");
+
+        // Snowflakes keep the shard in the bits above the 22nd
+        for (int i = 1; i <= getInt("guilds", 8); i++) {
+            guilds.add(((long) i << 22) | i);
+        }
+
+        for (int i = 1; i <= getInt("nodes", 3); i++) {
+            nodes.add(new Node("node-" + i, new File(directory, "node-" + i), shared));
+        }
+
+        System.out.printf("Started %d nodes in %s.%n", nodes.size(), directory.getAbsolutePath());
+        awaitBalanced();
+
+        Map<Long, List<String>> queues = new LinkedHashMap<>();
+        int tracks = getInt("tracks", 5);
+        for (long guild : guilds) {
+            Node owner = ownerOf(guild);
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < tracks; i++) {
+                String id = "track-" + (guild >>> 22) + "-" + i;
+                ids.add(id);
+                owner.expect("queue " + guild + " " + id, "queued " + guild + " ");
+            }
+
+            if (!owner.list(guild).equals(ids)) throw new IllegalStateException("Guild " + guild + " did not queue " + ids);
+            queues.put(guild, ids);
+        }
+
+        Node victim = ownerOf(guilds.get(0));
+        Set<Integer> lost = victim.shards();
+        List<Long> moved = guilds.stream()
+                .filter(guild -> lost.contains(ConsistentHashRing.shardOf(guild, shards)))
+                .collect(Collectors.toList());
+
+        boolean kill = getBoolean("kill", false);
+        System.out.printf("Queued %d tracks in %d guilds, %s %s which owns shards %s and guilds %s.%n", tracks, guilds.size(),
+                kill ? "killing" : "stopping", victim.name, lost, moved);
+
+        // Journal records are written in batches, the last ones must be on disk for the handoff to carry them
+        Thread.sleep(getInt("flush-interval", 200) * 3L);
+        long stopped = System.nanoTime();
+        victim.stop(kill);
+        nodes.remove(victim);
+
+        boolean adopted = true;
+        for (long guild : moved) {
+            List<String> expected = kill ? new ArrayList<>() : queues.get(guild);
+            Node owner = awaitOwner(guild);
+            List<String> queue = owner == null ? null : owner.list(guild);
+            boolean match = expected.equals(queue);
+            adopted &= match;
+
+            System.out.printf("Guild %d: %s after %d ms on %s, %s%n", guild, match ? kill ? "taken over" : "adopted" : "NOT adopted",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopped), owner == null ? "no node" : owner.name,
+                    queue == null ? "no queue" : "queue " + queue);
+        }
+
+        System.out.println(adopted ? "Every queue was adopted." : "Some queues were not adopted.");
+        return adopted;
+    }
+
+    public void close() {
+        for (Node node : nodes) {
+            node.stop(false);
+        }
+    }
+
+    /**
+     * Waits until every shard is owned by exactly one node and the owners stopped changing for a few heartbeats, the
+     * first node to start takes every shard until it sees the others.
+     */
+    private void awaitBalanced() throws IOException, InterruptedException {
+        startStep();
+        List<Set<Integer>> previous = null;
+        long since = 0;
+
+        while (true) {
+            List<Set<Integer>> owned = new ArrayList<>();
+            int count = 0;
+            for (Node node : nodes) {
+                Set<Integer> shards = node.shards();
+                owned.add(shards);
+                count += shards.size();
+            }
+
+            boolean covered = count == shards && owned.stream().flatMap(Set::stream).distinct().count() == shards;
+            if (!covered || !owned.equals(previous)) {
+                previous = owned;
+                since = System.nanoTime();
+            } else if (System.nanoTime() - since > TimeUnit.SECONDS.toNanos(3)) {
+                return;
+            }
+
+            checkDeadline("the shards to be balanced, owned: " + owned);
+            Thread.sleep(500);
+        }
+    }
+
+    private Node ownerOf(long guild) throws IOException, InterruptedException {
+        int shard = ConsistentHashRing.shardOf(guild, shards);
+        for (Node node : nodes) {
+            if (node.shards().contains(shard)) return node;
+        }
+
+        throw new IllegalStateException("No node owns shard " + shard);
+    }
+
+    /**
+     * @return the node which took the guild's shard over, or null if none did in time
+     */
+    private Node awaitOwner(long guild) throws IOException, InterruptedException {
+        startStep();
+        int shard = ConsistentHashRing.shardOf(guild, shards);
+
+        while (System.nanoTime() < deadline) {
+            for (Node node : nodes) {
+                if (node.shards().contains(shard)) return node;
+            }
+
+            Thread.sleep(250);
+        }
+
+        return null;
+    }
+
+    private void startStep() {
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(getInt("timeout", 60));
+    }
+
+    private void checkDeadline(String what) {
+        if (System.nanoTime() > deadline) throw new IllegalStateException("Timed out waiting for " + what);
+    }
+
+    private int getInt(String name, int def) {
+        String value = options.get(name);
+        return value == null ? def : Integer.parseInt(value);
+    }
+
+    private boolean getBoolean(String name, boolean def) {
+        String value = options.get(name);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * A bot process on the local gateway, driven through its console. Replies are read from its standard output, its
+     * logs go to node.log in its directory.
+     */
+    private class Node {
+        private final String name;
+        private final Process process;
+        private final Writer input;
+        private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+        private Node(String name, File directory, File shared) throws IOException {
+            this.name = name;
+            if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create " + directory);
+
+            try (PrintWriter config = new PrintWriter(new File(directory, "config.yml"), "UTF-8")) {
+                config.println("sharding:");
+                config.println("  shards: " + shards);
+                config.println("journal:");
+                config.println("  enabled: true");
+                config.println("  flush-interval: " + getInt("flush-interval", 200));
+                config.println("cluster:");
+                config.println("  enabled: true");
+                config.println("  directory: \"" + shared.getAbsolutePath().replace("\\", "/") + "\"");
+                config.println("  node-id: \"" + name + "\"");
+                config.println("  heartbeat: 1");
+                config.println("  timeout: " + getInt("lease-timeout", 3));
+                config.println("  gateway: \"local\"");
+                config.println("  local-guilds: [" + guilds.stream().map(String::valueOf).collect(Collectors.joining(", ")) + "]");
+                config.println("metrics:");
+                config.println("  jmx: false");
+            }
+
+            String java = new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath();
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Bootstrap.class.getName())
+                    .directory(directory)
+                    .redirectError(new File(directory, "node.log"))
+                    .start();
+            input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+
+            Thread reader = new Thread(() -> {
+                try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        replies.add(line);
+                    }
+                } catch (IOException ignored) {
+                }
+            }, "ClusterHarness-" + name);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private Set<Integer> shards() throws IOException, InterruptedException {
+            String reply = expect("shards", "shards ");
+            String list = reply.substring(reply.indexOf('[') + 1, reply.lastIndexOf(']')).trim();
+
+            Set<Integer> owned = new HashSet<>();
+            if (list.isEmpty()) return owned;
+            for (String shard : list.split(",")) {
+                owned.add(Integer.parseInt(shard.trim()));
+            }
+
+            return owned;
+        }
+
+        /**
+         * @return the queued identifiers or null if the node does not own the guild
+         */
+        private List<String> list(long guild) throws IOException, InterruptedException {
+            String reply = expect("list " + guild, "list " + guild + " ", "not-owned " + guild);
+            if (reply.startsWith("not-owned")) return null;
+
+            String[] parts = reply.split(" ");
+            return new ArrayList<>(Arrays.asList(parts).subList(3, parts.length));
+        }
+
+        /**
+         * Sends a command and waits for the first reply starting with one of the prefixes, skipping the others.
+         */
+        private String expect(String command, String... prefixes) throws IOException, InterruptedException {
+            input.write(command + "\n");
+            input.flush();
+
+            long timeout = TimeUnit.SECONDS.toMillis(getInt("timeout", 60));
+            while (true) {
+                String reply = replies.poll(timeout, TimeUnit.MILLISECONDS);
+                if (reply == null) throw new IllegalStateException(name + " did not answer " + command);
+
+                for (String prefix : prefixes) {
+                    if (reply.startsWith(prefix)) return reply;
+                }
+            }
+        }
+
+        /**
+         * @param kill true to kill the process, otherwise it is stopped and hands its shards off on the way out
+         */
+        private void stop(boolean kill) {
+            try {
+                if (kill) {
+                    process.destroyForcibly();
+                } else {
+                    process.destroy();
+                }
+
+                process.waitFor(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.BotListener;
+import it.multicoredev.discord.commands.CommandRouter;
+import it.multicoredev.discord.permissions.PermissionIndex;
+import it.multicoredev.discord.player.MusicPlayer;
+import it.multicoredev.discord.settings.GuildSettingsStore;
+import it.multicoredev.mclib.yaml.Configuration;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final String CHAT = "did anyone watch the match last night? that last goal was unreal";
+    private static final String COMMAND = "!mvolume 50";
+    private static final String[] COMMANDS = {"join", "leave", "volume", "play", "pause", "skip", "stop", "info", "empty", "loop", "save", "autostart", "playlist"};
+    private static final String[] PATHS = new String[COMMANDS.length];
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            PATHS[i] = "commands." + COMMANDS[i];
+        }
+    }
+
+    private File directory;
+    private Configuration config;
+    private ScheduledExecutorService scheduler;
+    private MusicPlayer player;
+    private CommandRouter router;
+    private BotListener listener;
+    private GuildMessageReceivedEvent chatEvent;
+    private GuildMessageReceivedEvent infoEvent;
+    private final Semaphore replies = new Semaphore(0);
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Fixtures.createTempDirectory("dispatch");
+        config = Fixtures.createConfig(directory);
+        scheduler = Executors.newScheduledThreadPool(1);
+
+        router = new CommandRouter();
+        for (String command : COMMANDS) {
+            router.register(command, (event, channel, member, args) -> {
+            });
+        }
+        router.rebuild(config);
+
+        GuildSettingsStore settings = new GuildSettingsStore(new File(directory, "guilds"), scheduler, 2000);
+        player = new MusicPlayer(config, settings, scheduler, scheduler);
+        listener = new BotListener(player, config, new PermissionIndex(config), settings);
+
+        Map<String, Object> guildAnswers = new HashMap<>();
+        guildAnswers.put("getIdLong", 42L);
+        guildAnswers.put("getId", "42");
+        Guild guild = Stubs.of(Guild.class, guildAnswers);
+
+        // Every reply the channel sends releases a permit, so a command can be waited for until it answered
+        MessageAction reply = (MessageAction) Proxy.newProxyInstance(MessageAction.class.getClassLoader(), new Class<?>[]{MessageAction.class},
+                (self, method, args) -> {
+                    if (method.getName().equals("queue")) replies.release();
+                    return method.getReturnType() == boolean.class ? false : method.getReturnType() == int.class ? 0 : null;
+                });
+
+        Map<String, Object> channelAnswers = new HashMap<>();
+        channelAnswers.put("getGuild", guild);
+        channelAnswers.put("sendMessage", reply);
+        TextChannel channel = Stubs.of(TextChannel.class, channelAnswers);
+
+        Map<String, Object> memberAnswers = new HashMap<>();
+        memberAnswers.put("getGuild", guild);
+        memberAnswers.put("getIdLong", 7L);
+        Member member = Stubs.of(Member.class, memberAnswers);
+
+        chatEvent = event(CHAT, channel, member);
+        infoEvent = event("!minfo", channel, member);
+    }
+
+    private static GuildMessageReceivedEvent event(String content, TextChannel channel, Member member) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getContentRaw", content);
+        answers.put("getTextChannel", channel);
+        answers.put("getChannel", channel);
+        answers.put("getMember", member);
+        answers.put("getGuild", channel.getGuild());
+        answers.put("getAuthor", Stubs.of(User.class));
+
+        return new GuildMessageReceivedEvent(Stubs.of(JDA.class), 0, Stubs.of(Message.class, answers));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        listener.shutdown();
+        player.shutdown();
+        scheduler.shutdownNow();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public Object routeChat() {
+        return router.route(CHAT);
+    }
+
+    @Benchmark
+    public void routeCommand(Blackhole blackhole) {
+        CommandRouter.Route route = router.route(COMMAND);
+        blackhole.consume(route);
+        blackhole.consume(CommandRouter.parseArgs(COMMAND, route.getLength()));
+    }
+
+    @Benchmark
+    public int legacyChat(Blackhole blackhole) {
+        return legacyDispatch(CHAT, blackhole);
+    }
+
+    @Benchmark
+    public int legacyCommand(Blackhole blackhole) {
+        return legacyDispatch(COMMAND, blackhole);
+    }
+
+    /**
+     * Full listener path for a message that is not a command.
+     */
+    @Benchmark
+    public void listenerChat() {
+        listener.onGuildMessageReceived(chatEvent);
+    }
+
+    /**
+     * Full path of a command, from the listener through the guild's mailbox, the permission check and the handler, until
+     * its reply is sent through the stub channel. Commands run off the calling thread, so this waits for the reply.
+     */
+    @Benchmark
+    public void listenerCommand() {
+        listener.onGuildMessageReceived(infoEvent);
+        replies.acquireUninterruptibly();
+    }
+
+    /**
+     * The parsing and branch chain every message went through before the router.
+     */
+    private int legacyDispatch(String content, Blackhole blackhole) {
+        String[] messages = content.split(" ");
+        String command = messages[0].toLowerCase();
+        String[] args = Arrays.copyOfRange(messages, 1, messages.length);
+        blackhole.consume(args);
+
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (command.equals(config.getString(PATHS[i]).toLowerCase())) return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,140 @@
+package it.multicoredev.discord.benchmarks;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.mclib.yaml.Configuration;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class Fixtures {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+
+    private Fixtures() {
+    }
+
+    public static File createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    public static void delete(File directory) throws IOException {
+        if (directory == null || !directory.exists()) return;
+
+        try (Stream<java.nio.file.Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Writes a 16-bit stereo PCM WAV file with a 440 Hz tone, so audio benchmarks never touch the network.
+     */
+    public static File createWav(File directory, int seconds) throws IOException {
+        File file = new File(directory, "tone-" + seconds + "s.wav");
+        int samples = SAMPLE_RATE * seconds;
+        int dataLength = samples * CHANNELS * 2;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataLength));
+            out.writeBytes("WAVE");
+            out.writeBytes("fmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) CHANNELS));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE));
+            out.writeInt(Integer.reverseBytes(SAMPLE_RATE * CHANNELS * 2));
+            out.writeShort(Short.reverseBytes((short) (CHANNELS * 2)));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataLength));
+
+            for (int i = 0; i < samples; i++) {
+                short sample = (short) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) * Short.MAX_VALUE * 0.5);
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    out.writeShort(Short.reverseBytes(sample));
+                }
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Resolves a local file through the manager's local source.
+     */
+    public static AudioTrack loadTrack(AudioPlayerManager manager, File file) throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<AudioTrack> result = new CompletableFuture<>();
+
+        manager.loadItem(file.getAbsolutePath(), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                result.complete(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                result.completeExceptionally(new IllegalStateException("Expected a single track"));
+            }
+
+            @Override
+            public void noMatches() {
+                result.completeExceptionally(new IllegalStateException("No matches for " + file));
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                result.completeExceptionally(exception);
+            }
+        });
+
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Loads the bundled default config.yml into a scratch directory, with every file it points at moved there too.
+     */
+    public static Configuration createConfig(File directory) throws IOException {
+        Configuration config = new Configuration(new File(directory, "config.yml"), Fixtures.class.getClassLoader().getResourceAsStream("config.yml"), true);
+        config.autoload();
+
+        config.set("track-cache.file", "");
+        config.set("journal.directory", new File(directory, "journal").getPath());
+        config.set("settings.directory", new File(directory, "guilds").getPath());
+        config.set("metrics.jmx", false);
+        return config;
+    }
+}
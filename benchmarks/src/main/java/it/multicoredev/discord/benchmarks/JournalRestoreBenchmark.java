@@ -0,0 +1,105 @@
+package it.multicoredev.discord.benchmarks;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.journal.GuildJournal;
+import it.multicoredev.discord.journal.QueueJournal;
+import it.multicoredev.discord.journal.QueueSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalRestoreBenchmark {
+    @Param({"1000"})
+    private int guilds;
+
+    @Param({"500"})
+    private int tracks;
+
+    private File directory;
+    private AudioPlayerManager manager;
+    private QueueJournal journal;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Fixtures.createTempDirectory("journal");
+        manager = new DefaultAudioPlayerManager();
+        AudioSourceManagers.registerLocalSource(manager);
+
+        AudioTrack track = Fixtures.loadTrack(manager, Fixtures.createWav(directory, 1));
+        journal = new QueueJournal(manager, new File(directory, "journal"), Integer.MAX_VALUE, false);
+
+        for (long guild = 1; guild <= guilds; guild++) {
+            GuildJournal guildJournal = journal.open(guild);
+            guildJournal.loop(true);
+
+            for (int i = 0; i < tracks; i++) {
+                guildJournal.enqueue(track);
+            }
+
+            guildJournal.next();
+            journal.close(guild);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        manager.shutdown();
+        Fixtures.delete(directory);
+    }
+
+    /**
+     * Rebuilds every guild's queue from disk, the work done before the first guild can resume after a restart.
+     */
+    @Benchmark
+    public int restoreAll() throws Exception {
+        int restored = 0;
+
+        for (long guild = 1; guild <= guilds; guild++) {
+            QueueSnapshot snapshot = journal.restore(guild);
+            restored += snapshot.getQueue().size();
+        }
+
+        return restored;
+    }
+}
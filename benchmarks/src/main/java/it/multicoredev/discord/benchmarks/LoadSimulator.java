@@ -0,0 +1,450 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.player.GuildAudioSendHandler;
+import it.multicoredev.discord.player.GuildMusicManager;
+import it.multicoredev.discord.player.MusicPlayer;
+import it.multicoredev.discord.settings.GuildSettingsStore;
+import it.multicoredev.mclib.yaml.Configuration;
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.managers.AudioManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LoadSimulator {
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_QUEUE = 25;
+
+    private final Map<String, String> options;
+    private final List<SimulatedGuild> guilds = new CopyOnWriteArrayList<>();
+    private final List<File> tracks = new ArrayList<>();
+    private File directory;
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService traffic;
+    private MusicPlayer player;
+    private PrintWriter csv;
+
+    /**
+     * Finds how many playing guilds one instance sustains. Simulated guilds are added in steps; each one plays local
+     * WAV fixtures through a real {@link MusicPlayer} and has a send thread polling its handler every 20 ms, like JDA's
+     * audio send loop, while play, skip and playlist commands arrive at the given rates. Every step reports the share
+     * of missed frames, the time the send handler took to provide a frame, how late the send threads woke up, and the
+     * CPU and heap taken per guild.
+     * <p>
+     * java -cp target/benchmarks.jar it.multicoredev.discord.benchmarks.LoadSimulator [--option value]...
+     * <ul>
+     * <li>--guilds 10,25,50,100: guild counts to measure, in increasing order</li>
+     * <li>--warmup 10, --duration 30: seconds to settle and to measure at every step</li>
+     * <li>--play-rate 2, --skip-rate 1, --playlist-rate 1: commands per guild per minute</li>
+     * <li>--tracks 4, --track-length 30: fixtures to play and their length in seconds</li>
+     * <li>--buffer-depth 0: audio.buffer-depth of every guild</li>
+     * <li>--opus-cache, --governor: keep the Opus frame cache and the quality governor running, both are off otherwise</li>
+     * <li>--csv file: also write the results as CSV</li>
+     * </ul>
+     */
+    public LoadSimulator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+
+            String name = args[i].substring(2);
+            options.put(name, i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true");
+        }
+
+        LoadSimulator simulator = new LoadSimulator(options);
+        try {
+            simulator.run();
+        } finally {
+            simulator.close();
+        }
+
+        // Lavaplayer's threads are not daemons
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        directory = Fixtures.createTempDirectory("load-simulator");
+        scheduler = Executors.newScheduledThreadPool(2);
+        traffic = Executors.newSingleThreadScheduledExecutor();
+
+        int trackLength = getInt("track-length", 30);
+        for (int i = 0; i < getInt("tracks", 4); i++) {
+            File track = new File(directory, "track-" + i);
+            if (!track.mkdir()) throw new IOException("Unable to create " + track);
+            tracks.add(Fixtures.createWav(track, trackLength));
+        }
+
+        Configuration config = Fixtures.createConfig(directory);
+        config.set("opus-cache.enabled", getBoolean("opus-cache", false));
+        config.set("opus-cache.directory", new File(directory, "opus-cache").getPath());
+        config.set("quality.enabled", getBoolean("governor", false));
+        config.set("audio.buffer-depth", getInt("buffer-depth", 0));
+        config.set("library.enabled", false);
+        config.set("idle.disconnect", 0);
+        config.set("idle.evict", 0);
+
+        GuildSettingsStore settings = new GuildSettingsStore(new File(directory, "guilds"), scheduler, 2000);
+        player = new MusicPlayer(config, settings, scheduler, scheduler);
+
+        String file = options.get("csv");
+        if (file != null) {
+            csv = new PrintWriter(file, "UTF-8");
+            csv.println("guilds,miss_ratio,provide_p50_us,provide_p99_us,provide_p999_us,provide_max_us,late_p99_us,cpu_cores,cpu_ms_per_guild_second,heap_mb,heap_kb_per_guild");
+        }
+
+        startTraffic();
+
+        long baseline = usedHeap();
+        System.out.printf("%7s %8s %10s %10s %10s %10s %10s %9s %13s %9s %12s%n", "guilds", "miss %", "p50 us", "p99 us",
+                "p99.9 us", "max us", "late p99", "cores", "cpu ms/g/s", "heap MB", "heap KB/g");
+
+        for (String step : options.getOrDefault("guilds", "10,25,50,100").split(",")) {
+            int count = Integer.parseInt(step.trim());
+            while (guilds.size() < count) {
+                guilds.add(new SimulatedGuild(guilds.size() + 1));
+            }
+
+            measure(baseline);
+        }
+    }
+
+    private void measure(long baseline) throws InterruptedException {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(getInt("warmup", 10)));
+
+        long[] frames = countFrames();
+        long cpu = processCpuTime();
+        long start = System.nanoTime();
+        guilds.forEach(SimulatedGuild::reset);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(getInt("duration", 30)));
+
+        long elapsed = System.nanoTime() - start;
+        cpu = cpu < 0 ? -1 : processCpuTime() - cpu;
+        long[] after = countFrames();
+
+        LatencyRecorder provide = new LatencyRecorder();
+        LatencyRecorder late = new LatencyRecorder();
+        for (SimulatedGuild guild : guilds) {
+            LatencyRecorder[] recorders = guild.reset();
+            provide.add(recorders[0]);
+            late.add(recorders[1]);
+        }
+
+        long provided = after[0] - frames[0];
+        long missed = after[1] - frames[1];
+        double missRatio = provided + missed == 0 ? 0 : (double) missed / (provided + missed);
+        double cores = cpu < 0 ? -1 : (double) cpu / elapsed;
+        double cpuPerGuild = cpu < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(cpu) / (double) guilds.size() / (elapsed / 1e9);
+        double heap = (usedHeap() - baseline) / (1024.0 * 1024.0);
+
+        System.out.printf("%7d %8.3f %10.1f %10.1f %10.1f %10.1f %10.1f %9.2f %13.3f %9.1f %12.1f%n", guilds.size(),
+                missRatio * 100, provide.percentile(0.5) / 1e3, provide.percentile(0.99) / 1e3, provide.percentile(0.999) / 1e3,
+                provide.getMax() / 1e3, late.percentile(0.99) / 1e3, cores, cpuPerGuild, heap, heap * 1024 / guilds.size());
+
+        if (csv != null) {
+            csv.printf("%d,%.6f,%.1f,%.1f,%.1f,%.1f,%.1f,%.3f,%.4f,%.1f,%.1f%n", guilds.size(), missRatio,
+                    provide.percentile(0.5) / 1e3, provide.percentile(0.99) / 1e3, provide.percentile(0.999) / 1e3,
+                    provide.getMax() / 1e3, late.percentile(0.99) / 1e3, cores, cpuPerGuild, heap, heap * 1024 / guilds.size());
+            csv.flush();
+        }
+    }
+
+    /**
+     * @return the frames provided and missed by every guild's own send handler so far
+     */
+    private long[] countFrames() {
+        long[] frames = new long[2];
+        for (SimulatedGuild guild : guilds) {
+            GuildAudioSendHandler handler = player.getMusicManager(guild.guild).getSendHandler();
+            frames[0] += handler.getProvidedFrames();
+            frames[1] += handler.getMissedFrames();
+        }
+
+        return frames;
+    }
+
+    /**
+     * Every second each guild issues each command with a probability matching its rate.
+     */
+    private void startTraffic() {
+        double play = getDouble("play-rate", 2) / 60;
+        double skip = getDouble("skip-rate", 1) / 60;
+        double playlist = getDouble("playlist-rate", 1) / 60;
+
+        traffic.scheduleAtFixedRate(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            for (SimulatedGuild guild : guilds) {
+                try {
+                    if (random.nextDouble() < play) guild.play();
+                    if (random.nextDouble() < skip) player.skipTrack(guild.channel);
+                    if (random.nextDouble() < playlist) player.getPlaylistPage(guild.channel, 0, 10);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void close() throws IOException {
+        guilds.forEach(SimulatedGuild::stop);
+        if (traffic != null) traffic.shutdownNow();
+        if (player != null) player.shutdown();
+        if (scheduler != null) scheduler.shutdownNow();
+        if (csv != null) csv.close();
+        Fixtures.delete(directory);
+    }
+
+    private File randomTrack() {
+        return tracks.get(ThreadLocalRandom.current().nextInt(tracks.size()));
+    }
+
+    private int getInt(String name, int def) {
+        String value = options.get(name);
+        return value == null ? def : Integer.parseInt(value);
+    }
+
+    private double getDouble(String name, double def) {
+        String value = options.get(name);
+        return value == null ? def : Double.parseDouble(value);
+    }
+
+    private boolean getBoolean(String name, boolean def) {
+        String value = options.get(name);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+
+    private static long processCpuTime() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Heap still reachable after a collection.
+     */
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * An audio manager that keeps the sending handler it is given and reports itself connected.
+     */
+    private static AudioManager createAudioManager(Guild guild) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getGuild", guild);
+        answers.put("isConnected", true);
+        AudioManager fallback = Stubs.of(AudioManager.class, answers);
+        AtomicReference<AudioSendHandler> handler = new AtomicReference<>();
+
+        Object proxy = Proxy.newProxyInstance(LoadSimulator.class.getClassLoader(), new Class<?>[]{AudioManager.class}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "setSendingHandler":
+                    handler.set((AudioSendHandler) args[0]);
+                    return null;
+                case "getSendingHandler":
+                    return handler.get();
+                default:
+                    try {
+                        return method.invoke(fallback, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        });
+
+        return (AudioManager) proxy;
+    }
+
+    private final class SimulatedGuild implements Runnable {
+        private final Guild guild;
+        private final TextChannel channel;
+        private final AudioManager audioManager;
+        private final Thread sender;
+        private volatile LatencyRecorder provide = new LatencyRecorder();
+        private volatile LatencyRecorder late = new LatencyRecorder();
+        private volatile boolean running = true;
+
+        private SimulatedGuild(long id) {
+            Map<String, Object> guildAnswers = new HashMap<>();
+            guildAnswers.put("getIdLong", id);
+            guildAnswers.put("getId", Long.toString(id));
+            guild = Stubs.of(Guild.class, guildAnswers);
+            audioManager = createAudioManager(guild);
+            guildAnswers.put("getAudioManager", audioManager);
+
+            Map<String, Object> channelAnswers = new HashMap<>();
+            channelAnswers.put("getGuild", guild);
+            channel = Stubs.of(TextChannel.class, channelAnswers);
+
+            // Looping keeps the queue playing between commands; play commands keep it at a bounded size
+            player.setLooping(guild, true);
+            for (File track : tracks) {
+                player.loadAndPlay(channel, track.getAbsolutePath());
+            }
+
+            // JDA sends every connection's audio from a thread of its own
+            sender = new Thread(this, "LoadSimulator-Send-" + id);
+            sender.setDaemon(true);
+            sender.setPriority(Thread.MAX_PRIORITY);
+            sender.start();
+        }
+
+        private void play() {
+            GuildMusicManager manager = player.getMusicManager(guild);
+            if (manager.scheduler.size() >= MAX_QUEUE) manager.scheduler.remove(0);
+            player.loadAndPlay(channel, randomTrack().getAbsolutePath());
+        }
+
+        /**
+         * Starts new recorders.
+         *
+         * @return the provide and lateness recorders filled since the last reset
+         */
+        private LatencyRecorder[] reset() {
+            LatencyRecorder[] recorders = {provide, late};
+            provide = new LatencyRecorder();
+            late = new LatencyRecorder();
+            return recorders;
+        }
+
+        private void stop() {
+            running = false;
+            sender.interrupt();
+        }
+
+        @Override
+        public void run() {
+            long next = System.nanoTime();
+
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                late.record(start - next);
+
+                AudioSendHandler handler = audioManager.getSendingHandler();
+                if (handler != null && handler.canProvide()) handler.provide20MsAudio();
+                provide.record(System.nanoTime() - start);
+
+                // A send loop that fell a whole frame behind drops the backlog instead of bursting to catch up
+                next += FRAME_NANOS;
+                if (System.nanoTime() - next > FRAME_NANOS) next = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Log-linear histogram of nanosecond values, 8 sub-buckets per power of two, for a single writer.
+     */
+    private static final class LatencyRecorder {
+        private static final int SUB_BUCKETS = 8;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long total;
+        private long max;
+
+        private void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+
+            counts[index(nanos)]++;
+            total++;
+            if (nanos > max) max = nanos;
+        }
+
+        private void add(LatencyRecorder other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        private long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given quantile
+         */
+        private long percentile(double quantile) {
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(max, upperBound(i));
+            }
+
+            return max;
+        }
+
+        private static int index(long nanos) {
+            if (nanos < SUB_BUCKETS) return (int) nanos;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+
+            int exponent = index / SUB_BUCKETS + 2;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.permissions.PermissionIndex;
+import it.multicoredev.mclib.yaml.Configuration;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionBenchmark {
+    private static final int GUILD_ROLES = 200;
+    private static final int MEMBER_ROLES = 20;
+
+    private File directory;
+    private PermissionIndex index;
+    private Member member;
+    private String[] allowed;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Fixtures.createTempDirectory("permissions");
+        Configuration config = Fixtures.createConfig(directory);
+        config.set("permissions.play", Collections.singletonList("DJ"));
+        allowed = new String[]{"DJ"};
+
+        List<Role> guildRoles = new ArrayList<>();
+        for (int i = 0; i < GUILD_ROLES; i++) {
+            Map<String, Object> answers = new HashMap<>();
+            answers.put("getIdLong", 1000L + i);
+            answers.put("getName", i == GUILD_ROLES - 1 ? "dj" : "role-" + i);
+            guildRoles.add(Stubs.of(Role.class, answers));
+        }
+
+        Map<String, Object> guildAnswers = new HashMap<>();
+        guildAnswers.put("getIdLong", 42L);
+        guildAnswers.put("getRoles", guildRoles);
+        Guild guild = Stubs.of(Guild.class, guildAnswers);
+
+        Map<String, Object> memberAnswers = new HashMap<>();
+        memberAnswers.put("getIdLong", 7L);
+        memberAnswers.put("getGuild", guild);
+        memberAnswers.put("getRoles", new ArrayList<>(guildRoles.subList(GUILD_ROLES - MEMBER_ROLES, GUILD_ROLES)));
+        member = Stubs.of(Member.class, memberAnswers);
+
+        index = new PermissionIndex(config);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public boolean index() {
+        return index.hasPermission(member, "play");
+    }
+
+    /**
+     * The check every command used to run: lowercase the configured names, then scan the member's roles.
+     */
+    @Benchmark
+    public boolean legacyHasRole() {
+        if (allowed.length == 0 || (allowed.length == 1 && allowed[0].isEmpty())) return true;
+
+        List<String> rolesLowered = new ArrayList<>();
+        for (String role : allowed) {
+            rolesLowered.add(role.toLowerCase());
+        }
+
+        for (Role role : member.getRoles()) {
+            if (rolesLowered.contains(role.getName())) return true;
+        }
+
+        return false;
+    }
+}
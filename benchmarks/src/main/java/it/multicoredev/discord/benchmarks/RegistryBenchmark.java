@@ -0,0 +1,129 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+    @Param({"500"})
+    private int guilds;
+
+    private long[] ids;
+    private String[] idStrings;
+    private LongConcurrentMap<Object> registry;
+    private Map<Long, Object> legacy;
+
+    @Setup
+    public void setup() {
+        ids = new long[guilds];
+        idStrings = new String[guilds];
+        registry = new LongConcurrentMap<>();
+        legacy = new HashMap<>();
+
+        for (int i = 0; i < guilds; i++) {
+            ids[i] = 100000000000000000L + ThreadLocalRandom.current().nextLong(900000000000000000L);
+            idStrings[i] = Long.toString(ids[i]);
+            registry.computeIfAbsent(ids[i], id -> new Object());
+            legacy.put(ids[i], new Object());
+        }
+    }
+
+    private Object lookup() {
+        return registry.computeIfAbsent(ids[ThreadLocalRandom.current().nextInt(ids.length)], id -> new Object());
+    }
+
+    /**
+     * The registry as it was: one monitor for every guild, a parsed string key and a boxed lookup.
+     */
+    private Object lookupLegacy() {
+        String id = idStrings[ThreadLocalRandom.current().nextInt(idStrings.length)];
+
+        synchronized (this) {
+            long guildId = Long.parseLong(id);
+            Object manager = legacy.get(guildId);
+            if (manager == null) {
+                manager = new Object();
+                legacy.put(guildId, manager);
+            }
+
+            return manager;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object registry_1() {
+        return lookup();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object registry_4() {
+        return lookup();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object registry_max() {
+        return lookup();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object legacy_1() {
+        return lookupLegacy();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object legacy_4() {
+        return lookupLegacy();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object legacy_max() {
+        return lookupLegacy();
+    }
+}
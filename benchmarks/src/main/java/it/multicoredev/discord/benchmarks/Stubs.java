@@ -0,0 +1,81 @@
+package it.multicoredev.discord.benchmarks;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Creates an interface stub. Methods named in answers return the given value; other methods returning an
+     * interface return a nested stub (the same one on every call), everything else returns a neutral default.
+     */
+    public static <T> T of(Class<T> type, Map<String, Object> answers) {
+        Map<Method, Object> nested = new ConcurrentHashMap<>();
+
+        Object proxy = Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            String name = method.getName();
+
+            if (answers.containsKey(name)) return answers.get(name);
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) {
+                    case "equals":
+                        return self == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    default:
+                        return type.getSimpleName() + "Stub";
+                }
+            }
+
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) return false;
+            if (returnType == long.class) return 0L;
+            if (returnType == int.class) return 0;
+            if (returnType == double.class) return 0.0;
+            if (returnType == float.class) return 0f;
+            if (returnType == short.class) return (short) 0;
+            if (returnType == byte.class) return (byte) 0;
+            if (returnType == char.class) return '\0';
+            if (returnType == String.class) return "";
+            if (returnType == List.class) return Collections.emptyList();
+            if (returnType == Set.class) return Collections.emptySet();
+            if (returnType.isInterface()) return nested.computeIfAbsent(method, key -> of(returnType, Collections.emptyMap()));
+
+            return null;
+        });
+
+        return type.cast(proxy);
+    }
+
+    public static <T> T of(Class<T> type) {
+        return of(type, Collections.emptyMap());
+    }
+}
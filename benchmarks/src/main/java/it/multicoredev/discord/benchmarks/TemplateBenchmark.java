@@ -0,0 +1,85 @@
+package it.multicoredev.discord.benchmarks;
+
+import it.multicoredev.discord.Utils;
+import it.multicoredev.discord.messaging.MessageTemplate;
+import net.dv8tion.jda.api.entities.TextChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    private static final String MESSAGE = "{track} by {author} ({duration})";
+    private static final String[] TARGETS = {"{track}", "{author}", "{duration}"};
+    private static final String[] REPLACEMENTS = {"Never Gonna Give You Up", "Rick Astley", "03:33"};
+
+    private TextChannel channel;
+    private MessageTemplate template;
+
+    @Setup
+    public void setup() {
+        Utils.setOutbound(null);
+        channel = Stubs.of(TextChannel.class);
+        template = MessageTemplate.compile(MESSAGE);
+    }
+
+    /**
+     * Rendering plus the hand-off to a stubbed channel, as done for every playlist line.
+     */
+    @Benchmark
+    public void sendMessage() {
+        Utils.sendMessage(channel, template, TARGETS, REPLACEMENTS);
+    }
+
+    @Benchmark
+    public String render() {
+        return template.render(TARGETS, REPLACEMENTS);
+    }
+
+    /**
+     * The previous substitution: one String.replace, and one new String, per placeholder.
+     */
+    @Benchmark
+    public String legacyReplace() {
+        String message = MESSAGE;
+        for (int i = 0; i < TARGETS.length; i++) {
+            message = message.replace(TARGETS[i], REPLACEMENTS[i]);
+        }
+
+        return message;
+    }
+}
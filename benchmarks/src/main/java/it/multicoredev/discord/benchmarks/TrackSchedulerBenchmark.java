@@ -0,0 +1,151 @@
+package it.multicoredev.discord.benchmarks;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackState;
+import it.multicoredev.discord.player.TrackScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackSchedulerBenchmark {
+    @Param({"10000"})
+    private int size;
+
+    private ScheduledExecutorService executor;
+    private TrackScheduler looping;
+    private TrackScheduler consuming;
+    private LinkedBlockingQueue<AudioTrack> legacy;
+    private AudioTrack track;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        AudioPlayer player = Stubs.of(AudioPlayer.class, Collections.singletonMap("startTrack", true));
+        track = Stubs.of(AudioTrack.class, Collections.singletonMap("getState", AudioTrackState.INACTIVE));
+
+        looping = new TrackScheduler(player, null, executor, 0);
+        consuming = new TrackScheduler(player, null, executor, 0);
+        legacy = new LinkedBlockingQueue<>();
+
+        for (int i = 0; i < size; i++) {
+            AudioTrack queued = Stubs.of(AudioTrack.class, Collections.singletonMap("getState", AudioTrackState.INACTIVE));
+            looping.queue(queued);
+            consuming.queue(queued);
+            legacy.offer(queued);
+        }
+
+        looping.setLooping(true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void loopAdvance() {
+        looping.nextTrack();
+    }
+
+    @Benchmark
+    public void enqueueAndAdvance() {
+        consuming.queue(track);
+        consuming.nextTrack();
+    }
+
+    @Benchmark
+    public List<AudioTrack> page() {
+        return looping.getPage(size / 2, 10);
+    }
+
+    @Benchmark
+    public List<AudioTrack> fullPlaylist() {
+        return looping.getPlaylist();
+    }
+
+    @Benchmark
+    public void removeMiddle() {
+        consuming.queue(consuming.remove(size / 2));
+    }
+
+    @Benchmark
+    public boolean moveHeadToTail() {
+        return looping.move(0, size - 1);
+    }
+
+    @Benchmark
+    public void shuffle() {
+        looping.shuffle();
+    }
+
+    /**
+     * The previous loop mode: poll and re-enqueue a fresh clone on every advance.
+     */
+    @Benchmark
+    public void legacyLoopAdvance() {
+        AudioTrack polled = legacy.poll();
+        legacy.offer(Stubs.of(AudioTrack.class, Collections.singletonMap("getState", polled.getState())));
+    }
+
+    @Benchmark
+    public List<AudioTrack> legacyPlaylist() {
+        return new ArrayList<>(legacy);
+    }
+
+    @Benchmark
+    public void legacyRemoveMiddle() {
+        Iterator<AudioTrack> iterator = legacy.iterator();
+        for (int i = 0; i < size / 2; i++) {
+            iterator.next();
+        }
+
+        AudioTrack removed = iterator.next();
+        iterator.remove();
+        legacy.offer(removed);
+    }
+}
@@ -0,0 +1,125 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import it.multicoredev.discord.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendHandlerBenchmark {
+    private static final int BUFFER_DEPTH = 10;
+
+    private File directory;
+    private DefaultAudioPlayerManager manager;
+    private AudioPlayer directPlayer;
+    private AudioPlayer bufferedPlayer;
+    private AudioPlayerSendHandler direct;
+    private BufferedAudioSendHandler buffered;
+
+    /**
+     * Both handlers are fed by real players decoding a local WAV file; tracks restart as soon as they end so the
+     * players never run dry during a measurement.
+     */
+    @Setup
+    public void setup() throws Exception {
+        directory = Fixtures.createTempDirectory("send-handler");
+        manager = new DefaultAudioPlayerManager();
+        AudioSourceManagers.registerLocalSource(manager);
+
+        AudioTrack track = Fixtures.loadTrack(manager, Fixtures.createWav(directory, 30));
+
+        directPlayer = createLoopingPlayer(track);
+        bufferedPlayer = createLoopingPlayer(track);
+        direct = new AudioPlayerSendHandler(() -> directPlayer);
+        buffered = new BufferedAudioSendHandler(() -> bufferedPlayer, BUFFER_DEPTH);
+
+        // Let the decoders fill their frame buffers before measuring
+        Thread.sleep(1000);
+    }
+
+    private AudioPlayer createLoopingPlayer(AudioTrack track) {
+        AudioPlayer player = manager.createPlayer();
+        player.addListener(new AudioEventAdapter() {
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack ended, AudioTrackEndReason endReason) {
+                player.startTrack(ended.makeClone(), false);
+            }
+        });
+        player.startTrack(track.makeClone(), false);
+        return player;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        directPlayer.destroy();
+        bufferedPlayer.destroy();
+        manager.shutdown();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public ByteBuffer direct() {
+        return direct.canProvide() ? direct.provide20MsAudio() : null;
+    }
+
+    /**
+     * One prefetch pass followed by the send thread's poll, the work the two threads share per frame.
+     */
+    @Benchmark
+    public ByteBuffer buffered() {
+        buffered.fill();
+        return buffered.canProvide() ? buffered.provide20MsAudio() : null;
+    }
+
+    /**
+     * The send thread's side alone, with the ring topped up outside the measured call where possible.
+     */
+    @Benchmark
+    public ByteBuffer bufferedPollOnly() {
+        if (buffered.getBufferedFrames() < 2) buffered.fill();
+        return buffered.canProvide() ? buffered.provide20MsAudio() : null;
+    }
+}
@@ -1,7 +1,19 @@
 package it.multicoredev.discord;
 
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.commands.CommandDispatcher;
+import it.multicoredev.discord.commands.CommandRouter;
+import it.multicoredev.discord.library.LibraryEntry;
+import it.multicoredev.discord.library.MusicLibrary;
+import it.multicoredev.discord.messaging.MessageTemplate;
+import it.multicoredev.discord.messaging.Messages;
+import it.multicoredev.discord.metrics.HistogramFamily;
+import it.multicoredev.discord.metrics.MetricsCollector;
+import it.multicoredev.discord.metrics.MetricsWriter;
+import it.multicoredev.discord.permissions.PermissionIndex;
 import it.multicoredev.discord.player.MusicPlayer;
+import it.multicoredev.discord.settings.GuildSettings;
+import it.multicoredev.discord.settings.GuildSettingsStore;
 import it.multicoredev.mclib.yaml.Configuration;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
@@ -12,7 +24,7 @@ import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.managers.AudioManager;
 
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -36,235 +48,434 @@ import java.util.concurrent.TimeUnit;
  * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class BotListener extends ListenerAdapter {
-    private final MusicPlayer player;
-    private final Configuration config;
+public class BotListener extends ListenerAdapter implements MetricsCollector {
+    private static final int PAGE_SIZE = 10;
+    private static final String[] PLAY_TARGETS = {"{track}", "{author}"};
+    private static final String[] TRACK_TARGETS = {"{track}", "{author}", "{duration}"};
+    private static final String[] PAGE_TARGETS = {"{page}", "{pages}"};
+    private static final String[] RESULT_TARGETS = {"{index}", "{track}", "{author}", "{album}", "{duration}"};
 
-    public BotListener(MusicPlayer player, Configuration config) {
+    private final MusicPlayer player;
+    private volatile Configuration config;
+    private final PermissionIndex permissions;
+    private final GuildSettingsStore settings;
+    private final CommandRouter router;
+    private final CommandDispatcher dispatcher;
+    private final HistogramFamily latency = new HistogramFamily();
+
+    public BotListener(MusicPlayer player, Configuration config, PermissionIndex permissions, GuildSettingsStore settings) {
         this.player = player;
         this.config = config;
+        this.permissions = permissions;
+        this.settings = settings;
+        this.router = new CommandRouter();
+        this.dispatcher = new CommandDispatcher(
+                config.getInt("dispatch.workers", 4),
+                config.getInt("dispatch.queue-limit", 5),
+                config.getBoolean("dispatch.virtual-threads", true));
+
+        router.register("join", this::join);
+        router.register("leave", this::leave);
+        router.register("volume", this::volume);
+        router.register("play", this::play);
+        router.register("pause", this::pause);
+        router.register("skip", this::skip);
+        router.register("stop", this::stop);
+        router.register("info", this::info);
+        router.register("empty", this::empty);
+        router.register("loop", this::loop);
+        router.register("save", this::save);
+        router.register("autostart", this::autostart);
+        router.register("playlist", this::playlist);
+        router.register("shuffle", this::shuffle);
+        router.register("remove", this::remove);
+        router.register("move", this::move);
+        router.register("jump", this::jump);
+        router.register("search", this::search);
+        router.register("local", this::local);
+        router.register("folder", this::folder);
+        router.register("tune", this::tune);
+        router.register("untune", this::untune);
+        router.register("reload", this::reload);
+        router.rebuild(config);
+    }
+
+    /**
+     * Reads config.yml again and applies its command names, permissions and messages. The file is read into a new
+     * configuration, the one in use is never modified while other threads read it.
+     */
+    public void reload() throws IOException {
+        Configuration fresh = MusicCore.loadConfig();
+        Messages.load(fresh);
+        router.rebuild(fresh);
+        permissions.reload(fresh);
+        config = fresh;
     }
 
     @Override
     public void onGuildMessageReceived(GuildMessageReceivedEvent event) {
+        long received = System.nanoTime();
         if (event.getAuthor().isBot()) return;
+
+        String content = event.getMessage().getContentRaw();
+        CommandRouter.Route route = router.route(content);
+        if (route == null) return;
+
+        // Only routing happens on the gateway thread, the command runs in the guild's mailbox
         TextChannel channel = event.getChannel();
+        String[] args = CommandRouter.parseArgs(content, route.getLength());
+        boolean queued = dispatcher.submit(event.getGuild().getIdLong(), route.getName(), received, () -> {
+            long start = System.nanoTime();
+            dispatchCommand(event, channel, route, args);
+            latency.get(route.getName()).record(System.nanoTime() - start);
+        });
+
+        if (!queued) Utils.sendMessage(channel, Messages.get("busy"));
+    }
 
-        String[] messages = event.getMessage().getContentRaw().split(" ");
-        String command = messages[0].toLowerCase();
-        String[] args = Arrays.copyOfRange(messages, 1, messages.length);
+    /**
+     * Drops the guild's command mailbox once it is idle.
+     */
+    public void forget(long guildId) {
+        dispatcher.forget(guildId);
+    }
+
+    public void shutdown() {
+        dispatcher.shutdown();
+    }
 
-        dispatchCommand(event, channel, command, args);
+    @Override
+    public void collect(MetricsWriter writer) {
+        writer.family("musiccore_command_seconds", "histogram", "Time spent running a command handler.");
+        latency.forEach((command, histogram) -> writer.histogram("musiccore_command_seconds", histogram, "command", command));
+        writer.family("musiccore_command_wait_seconds", "histogram", "Time from a command message being received to its handler starting.");
+        dispatcher.getWaits().forEach((command, histogram) -> writer.histogram("musiccore_command_wait_seconds", histogram, "command", command));
+        writer.family("musiccore_commands_pending", "gauge", "Commands waiting in the guild mailboxes.");
+        writer.sample("musiccore_commands_pending", dispatcher.getPending());
+        writer.family("musiccore_commands_rejected_total", "counter", "Commands refused because the guild had too many waiting.");
+        writer.sample("musiccore_commands_rejected_total", dispatcher.getRejected());
     }
 
-    private void dispatchCommand(GuildMessageReceivedEvent event, TextChannel channel, String command, String[] args) {
+    private void dispatchCommand(GuildMessageReceivedEvent event, TextChannel channel, CommandRouter.Route route, String[] args) {
         Member member = event.getMember();
 
         if (member == null) {
-            Utils.sendMessage(channel, config.getString("messages.internal-error"));
+            Utils.sendMessage(channel, Messages.get("internal-error"));
             Utils.sendMessage(channel, "*Member is null.*");
             return;
         }
 
-        if (command.equals(getString("commands.join"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.join"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        if (!permissions.hasPermission(member, route.getName())) {
+            Utils.sendMessage(channel, Messages.get("insufficient-perms"));
+            return;
+        }
 
-            if (!channel.getGuild().getSelfMember().hasPermission(channel, Permission.VOICE_CONNECT)) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-join-perm"));
-                return;
-            }
+        route.getHandler().execute(event, channel, member, args);
+    }
 
-            GuildVoiceState voiceState = member.getVoiceState();
+    private void join(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (!channel.getGuild().getSelfMember().hasPermission(channel, Permission.VOICE_CONNECT)) {
+            Utils.sendMessage(channel, Messages.get("insufficient-join-perm"));
+            return;
+        }
 
-            if (voiceState == null) {
-                Utils.sendMessage(channel, config.getString("messages.internal-error"));
-                Utils.sendMessage(channel, "*GuildVoiceState is null.*");
-                return;
-            }
+        GuildVoiceState voiceState = member.getVoiceState();
 
-            VoiceChannel voiceChannel = voiceState.getChannel();
+        if (voiceState == null) {
+            Utils.sendMessage(channel, Messages.get("internal-error"));
+            Utils.sendMessage(channel, "*GuildVoiceState is null.*");
+            return;
+        }
 
-            if (voiceChannel == null) {
-                Utils.sendMessage(channel, config.getString("messages.internal-error"));
-                Utils.sendMessage(channel, "*Can't connect to VoiceChannel*");
-                return;
-            }
+        VoiceChannel voiceChannel = voiceState.getChannel();
 
-            AudioManager audioManager = channel.getGuild().getAudioManager();
+        if (voiceChannel == null) {
+            Utils.sendMessage(channel, Messages.get("internal-error"));
+            Utils.sendMessage(channel, "*Can't connect to VoiceChannel*");
+            return;
+        }
 
-            if (audioManager.isAttemptingToConnect()) {
-                Utils.sendMessage(channel, config.getString("messages.chill-my-friend"));
-                return;
-            }
+        AudioManager audioManager = channel.getGuild().getAudioManager();
 
-            audioManager.openAudioConnection(voiceChannel);
-            Utils.sendMessage(channel, config.getString("messages.channel-join"), "{channel}", voiceChannel.getName());
-        } else if (command.equals(getString("commands.leave"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.leave"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        if (audioManager.isAttemptingToConnect()) {
+            Utils.sendMessage(channel, Messages.get("chill-my-friend"));
+            return;
+        }
 
-            GuildVoiceState voiceState = channel.getGuild().getSelfMember().getVoiceState();
+        audioManager.openAudioConnection(voiceChannel);
+        Utils.sendMessage(channel, Messages.get("channel-join"), "{channel}", voiceChannel.getName());
+    }
 
-            if (voiceState == null) {
-                Utils.sendMessage(channel, config.getString("messages.internal-error"));
-                Utils.sendMessage(channel, "*GuildVoiceState is null.*");
-                return;
-            }
+    private void leave(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        GuildVoiceState voiceState = channel.getGuild().getSelfMember().getVoiceState();
 
-            VoiceChannel voiceChannel = voiceState.getChannel();
+        if (voiceState == null) {
+            Utils.sendMessage(channel, Messages.get("internal-error"));
+            Utils.sendMessage(channel, "*GuildVoiceState is null.*");
+            return;
+        }
 
-            if (voiceChannel == null) {
-                Utils.sendMessage(channel, config.getString("messages.not-connected"));
-                return;
-            }
+        VoiceChannel voiceChannel = voiceState.getChannel();
 
-            channel.getGuild().getAudioManager().closeAudioConnection();
-            Utils.sendMessage(channel, config.getString("messages.channel-leave"));
-        } else if (command.equals(getString("commands.volume"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.volume"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        if (voiceChannel == null) {
+            Utils.sendMessage(channel, Messages.get("not-connected"));
+            return;
+        }
 
-            if (args.length < 1) {
-                Utils.sendMessage(channel, config.getString("messages.incorrect-usage"));
-                return;
-            }
+        channel.getGuild().getAudioManager().closeAudioConnection();
+        Utils.sendMessage(channel, Messages.get("channel-leave"));
+    }
+
+    private void volume(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length < 1) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
+
+        int volume;
+        try {
+            volume = Integer.parseInt(args[0]);
+        } catch (NumberFormatException ignored) {
+            return;
+        }
+
+        player.setVolume(channel, volume);
+    }
+
+    private void play(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length == 1) {
+            player.loadAndPlay(channel, args[0]);
+        } else if (args.length == 0) {
+            player.play(channel.getGuild());
+        } else {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+        }
+    }
+
+    private void pause(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.playPause(channel);
+    }
+
+    private void skip(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.skipTrack(channel);
+    }
+
+    private void stop(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.stop(channel);
+    }
+
+    private void info(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        AudioTrack track = player.getPlayingTrack(channel);
+
+        if (track == null) {
+            Utils.sendMessage(channel, Messages.get("not-playing"));
+        } else {
+            Utils.sendMessage(channel, Messages.get("play"), PLAY_TARGETS, new String[]{track.getInfo().title, track.getInfo().author});
+        }
+    }
+
+    private void empty(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.emptyPlaylist(channel);
+    }
+
+    private void loop(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.loop(channel);
+    }
+
+    private void save(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        settings.get(channel.getGuild().getIdLong()).setPlaylist(player.getPlaylistSrc(channel));
+        Utils.sendMessage(channel, Messages.get("save"));
+    }
+
+    private void autostart(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        GuildSettings guild = settings.get(channel.getGuild().getIdLong());
+        boolean autostart = guild.isAutostart();
+        guild.setAutostart(!autostart);
+
+        GuildVoiceState voiceState = channel.getGuild().getSelfMember().getVoiceState();
 
-            int volume;
+        if (voiceState == null) {
+            Utils.sendMessage(channel, Messages.get("internal-error"));
+            Utils.sendMessage(channel, "*GuildVoiceState is null.*");
+            return;
+        }
+
+        VoiceChannel voiceChannel = voiceState.getChannel();
+
+        if (voiceChannel == null) {
+            Utils.sendMessage(channel, Messages.get("not-connected"));
+            return;
+        }
+
+        guild.setChannel(voiceChannel.getIdLong());
+
+        Utils.sendMessage(channel, autostart ? Messages.get("autostart-off") : Messages.get("autostart-on"));
+    }
+
+    private void playlist(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        int page = 1;
+        if (args.length > 0) {
             try {
-                volume = Integer.parseInt(args[0]);
+                page = Math.max(1, Integer.parseInt(args[0]));
             } catch (NumberFormatException ignored) {
+                Utils.sendMessage(channel, Messages.get("incorrect-usage"));
                 return;
             }
+        }
 
-            player.setVolume(channel, volume);
-        } else if (command.equals(getString("commands.play"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.play"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        int size = player.getPlaylistSize(channel);
+        int pages = Math.max(1, (size + PAGE_SIZE - 1) / PAGE_SIZE);
+        page = Math.min(page, pages);
+
+        List<AudioTrack> playlist = player.getPlaylistPage(channel, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+
+        MessageTemplate line = Messages.get("audio-track");
+        for (AudioTrack track : playlist) {
+            Utils.sendMessage(channel, line,
+                    TRACK_TARGETS,
+                    new String[]{
+                            track.getInfo().title,
+                            track.getInfo().author,
+                            getTrackDuration(track.getDuration())
+                    });
+        }
 
-            if (args.length == 1) {
-                player.loadAndPlay(channel, args[0]);
-            } else if (args.length == 0) {
-                player.play(channel.getGuild());
-            } else {
-                Utils.sendMessage(channel, config.getString("messages.incorrect-usage"));
-            }
-        } else if (command.equals(getString("commands.pause"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.pause"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        if (pages > 1) {
+            Utils.sendMessage(channel, Messages.get("playlist-page"), PAGE_TARGETS, new String[]{String.valueOf(page), String.valueOf(pages)});
+        }
+    }
 
-            player.playPause(channel);
-        } else if (command.equals(getString("commands.skip"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.skip"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+    private void shuffle(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.shuffle(channel);
+    }
 
-            player.skipTrack(channel);
-        } else if (command.equals(getString("commands.stop"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.stop"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+    private void remove(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length != 1) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            player.stop(channel);
-        } else if (command.equals(getString("commands.info"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.info"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        int position;
+        try {
+            position = Integer.parseInt(args[0]);
+        } catch (NumberFormatException ignored) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            AudioTrack track = player.getPlayingTrack(channel);
+        player.remove(channel, position - 1);
+    }
 
-            if (track == null) {
-                Utils.sendMessage(channel, config.getString("messages.not-playing"));
-            } else {
-                Utils.sendMessage(channel, config.getString("messages.play"), new String[]{"{track}", "{author}"}, new String[]{track.getInfo().title, track.getInfo().author});
-            }
-        } else if (command.equals(getString("commands.empty"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.empty"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+    private void move(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length != 2) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            player.emptyPlaylist(channel);
-        } else if (command.equals(getString("commands.loop"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.loop"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        int from;
+        int to;
+        try {
+            from = Integer.parseInt(args[0]);
+            to = Integer.parseInt(args[1]);
+        } catch (NumberFormatException ignored) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            player.loop(channel);
-        } else if (command.equals(getString("commands.save"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.save"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+        player.move(channel, from - 1, to - 1);
+    }
 
-            config.set("guilds." + channel.getGuild().getId() + ".playlist", player.getPlaylistSrc(channel));
-            Utils.sendMessage(channel, config.getString("messages.save"));
-        } else if (command.equals(getString("commands.autostart"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.autostart"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+    private void jump(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length != 1) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            boolean autostart = config.getBoolean("guilds." + channel.getGuild().getId() + ".autostart");
-            config.set("guilds." + channel.getGuild().getId() + ".autostart", !autostart);
+        int position;
+        try {
+            position = Integer.parseInt(args[0]);
+        } catch (NumberFormatException ignored) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            GuildVoiceState voiceState = channel.getGuild().getSelfMember().getVoiceState();
+        player.jump(channel, position - 1);
+    }
 
-            if (voiceState == null) {
-                Utils.sendMessage(channel, config.getString("messages.internal-error"));
-                Utils.sendMessage(channel, "*GuildVoiceState is null.*");
-                return;
-            }
+    private void search(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        MusicLibrary library = player.getLibrary();
+        if (library == null) {
+            Utils.sendMessage(channel, Messages.get("library-disabled"));
+            return;
+        }
 
-            VoiceChannel voiceChannel = voiceState.getChannel();
+        if (args.length == 0) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
 
-            if (voiceChannel == null) {
-                Utils.sendMessage(channel, config.getString("messages.not-connected"));
-                return;
-            }
+        List<LibraryEntry> results = library.search(String.join(" ", args), config.getInt("library.results", 10));
+        if (results.isEmpty()) {
+            Utils.sendMessage(channel, Messages.get("not-found"));
+            return;
+        }
 
-            config.set("guilds." + channel.getGuild().getId() + ".channel", voiceChannel.getId());
+        MessageTemplate line = Messages.get("search-result");
+        for (int i = 0; i < results.size(); i++) {
+            LibraryEntry entry = results.get(i);
+            Utils.sendMessage(channel, line, RESULT_TARGETS, new String[]{
+                    String.valueOf(i + 1),
+                    entry.getTitle(),
+                    entry.getArtist(),
+                    entry.getAlbum(),
+                    getTrackDuration(entry.getDuration())
+            });
+        }
+    }
 
-            Utils.sendMessage(channel, autostart ? config.getString("messages.autostart-off") : config.getString("messages.autostart-on"));
-        } else if (command.equals(getString("commands.playlist"))) {
-            if (!Utils.hasRole(member, config.getString("permissions.playlist"))) {
-                Utils.sendMessage(channel, config.getString("messages.insufficient-perms"));
-                return;
-            }
+    private void local(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (player.getLibrary() == null) {
+            Utils.sendMessage(channel, Messages.get("library-disabled"));
+        } else if (args.length == 0) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+        } else {
+            player.playFromLibrary(channel, String.join(" ", args));
+        }
+    }
 
-            List<AudioTrack> playlist = player.getPlaylist(channel);
-
-            for (AudioTrack track : playlist) {
-                Utils.sendMessage(channel, config.getString("messages.audio-track"),
-                        new String[]{
-                                "{track}",
-                                "{author}",
-                                "{duration}"},
-                        new String[]{
-                                track.getInfo().title,
-                                track.getInfo().author,
-                                getTrackDuration(track.getDuration())
-                        });
-            }
+    private void folder(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (player.getLibrary() == null) {
+            Utils.sendMessage(channel, Messages.get("library-disabled"));
+        } else if (args.length == 0) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+        } else {
+            player.playFolder(channel, String.join(" ", args));
         }
     }
 
-    private String getString(String path) {
-        return config.getString(path).toLowerCase();
+    private void tune(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        if (args.length == 0) {
+            Utils.sendMessage(channel, Messages.get("incorrect-usage"));
+            return;
+        }
+
+        player.tune(channel, args[0]);
+    }
+
+    private void untune(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        player.untune(channel);
+    }
+
+    private void reload(GuildMessageReceivedEvent event, TextChannel channel, Member member, String[] args) {
+        try {
+            reload();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Utils.sendMessage(channel, Messages.get("internal-error"));
+            return;
+        }
+
+        Utils.sendMessage(channel, Messages.get("reload"));
     }
 
     private String getTrackDuration(long duration) {
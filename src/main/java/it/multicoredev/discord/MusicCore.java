@@ -1,17 +1,32 @@
 package it.multicoredev.discord;
 
+import it.multicoredev.discord.cluster.ClusterNode;
+import it.multicoredev.discord.cluster.FileCoordinator;
+import it.multicoredev.discord.cluster.LocalConsole;
+import it.multicoredev.discord.cluster.LocalShardController;
+import it.multicoredev.discord.cluster.ShardController;
+import it.multicoredev.discord.cluster.ShardManagerController;
+import it.multicoredev.discord.messaging.MessageCoalescer;
+import it.multicoredev.discord.messaging.Messages;
+import it.multicoredev.discord.metrics.MetricsMBean;
+import it.multicoredev.discord.metrics.MetricsRegistry;
+import it.multicoredev.discord.metrics.MetricsServer;
+import it.multicoredev.discord.permissions.PermissionIndex;
 import it.multicoredev.discord.player.MusicPlayer;
+import it.multicoredev.discord.settings.GuildSettingsStore;
 import it.multicoredev.mclib.yaml.Configuration;
 import net.dv8tion.jda.api.AccountType;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
-import net.dv8tion.jda.api.entities.Guild;
-import net.dv8tion.jda.api.entities.VoiceChannel;
-import net.dv8tion.jda.api.managers.AudioManager;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
 
 import javax.security.auth.login.LoginException;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -39,74 +54,163 @@ import java.util.concurrent.TimeUnit;
 public class MusicCore {
     private Configuration config;
     private JDA jda;
+    private ShardManager shardManager;
+    private volatile ClusterNode cluster;
     private MusicPlayer player;
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService io;
+    private MessageCoalescer outbound;
     private String token;
 
     public void main(String[] args) {
-        config = new Configuration(new File("config.yml"), getClass().getClassLoader().getResourceAsStream("config.yml"), true);
-
         try {
-            config.autoload();
+            config = loadConfig();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(-1);
         }
 
         token = config.getString("bot-token");
-        if (token == null || token.trim().isEmpty()) {
+        if ((token == null || token.trim().isEmpty()) && !isLocalGateway()) {
             new IOException("bot-token cannot be null or empty.").printStackTrace();
             System.exit(-1);
         }
 
-        player = new MusicPlayer(config);
+        Messages.load(config);
+        scheduler = Executors.newScheduledThreadPool(2, Utils.threadFactory("MusicCore-Scheduler"));
+        // Disk writes have threads of their own, a slow disk must not hold up the timers
+        io = Executors.newScheduledThreadPool(2, Utils.threadFactory("MusicCore-IO"));
+        outbound = new MessageCoalescer(scheduler,
+                config.getLong("outbound.coalesce-window", 250),
+                config.getInt("outbound.rate-limit", 5),
+                config.getLong("outbound.rate-limit-period", 5000));
+        Utils.setOutbound(outbound);
+
+        GuildSettingsStore settings = new GuildSettingsStore(new File(config.getString("settings.directory", "guilds")), io,
+                config.getLong("settings.flush-delay", 2000));
+        settings.migrate(config);
+
+        player = new MusicPlayer(config, settings, scheduler, io);
+        PermissionIndex permissions = new PermissionIndex(config);
+        BotListener listener = new BotListener(player, config, permissions, settings);
+        player.addReleaseListener(listener::forget);
+        player.addReleaseListener(permissions::forget);
+        player.addReleaseListener(outbound::forget);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (cluster != null) cluster.leave();
+            listener.shutdown();
+            player.shutdown();
+            settings.flush();
+        }, "MusicCore-Shutdown"));
+        startMetrics(listener);
+
+        StartupOrchestrator orchestrator = new StartupOrchestrator(config, player, settings, scheduler);
+        int shards = config.getInt("sharding.shards", 1);
+
+        if (config.getBoolean("cluster.enabled", false)) {
+            startCluster(orchestrator, shards, permissions, listener);
+            return;
+        }
 
         try {
-            jda = new JDABuilder(AccountType.BOT)
-                    .setToken(token)
-                    .addEventListeners(new BotListener(player, config))
-                    .build()
-                    .awaitReady();
-        } catch (LoginException | InterruptedException e) {
+            if (shards == 1) {
+                jda = new JDABuilder(AccountType.BOT)
+                        .setToken(token)
+                        .addEventListeners(permissions, listener, orchestrator)
+                        .build();
+            } else {
+                // Every shard shares the same player and listeners, guild state is already keyed by guild id
+                shardManager = new DefaultShardManagerBuilder()
+                        .setToken(token)
+                        .setShardsTotal(shards)
+                        .addEventListeners(permissions, listener, orchestrator)
+                        .build();
+            }
+        } catch (LoginException | IllegalArgumentException e) {
             e.printStackTrace();
             System.exit(-1);
         }
+    }
 
-        for (String id : config.getSection("guilds").getKeys()) {
-            String path = "guilds." + id + ".";
+    private void startCluster(StartupOrchestrator orchestrator, int shards, Object... listeners) {
+        if (shards < 1) {
+            new IllegalArgumentException("sharding.shards must be a fixed shard count in cluster mode.").printStackTrace();
+            System.exit(-1);
+        }
 
-            Guild guild = jda.getGuildById(id);
-            if (guild == null) continue;
+        if (!player.isJournaling()) {
+            new IllegalArgumentException("Cluster mode hands queues off through the journal, journal.enabled must be true.").printStackTrace();
+            System.exit(-1);
+        }
 
-            boolean start = false;
+        String nodeId = config.getString("cluster.node-id", "");
+        if (nodeId == null || nodeId.isEmpty()) nodeId = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9_.-]", "_");
 
-            if (config.getBoolean(path + "autostart")) {
-                String channelId = config.getString(path + "channel");
+        FileCoordinator coordinator = new FileCoordinator(new File(config.getString("cluster.directory", "cluster")), nodeId,
+                TimeUnit.SECONDS.toMillis(config.getLong("cluster.timeout", 15)));
+        orchestrator.setCoordinator(coordinator);
+
+        ShardController controller;
+        if (isLocalGateway()) {
+            List<Long> guilds = new ArrayList<>();
+            for (String id : config.getStringList("cluster.local-guilds")) {
+                try {
+                    guilds.add(Long.parseLong(id));
+                } catch (NumberFormatException ignored) {
+                }
+            }
 
-                VoiceChannel channel = guild.getVoiceChannelById(channelId);
-                if (channel == null) continue;
+            controller = new LocalShardController(coordinator, player, shards, guilds);
+        } else {
+            DefaultShardManagerBuilder builder = new DefaultShardManagerBuilder()
+                    .setToken(token)
+                    .addEventListeners(listeners)
+                    .addEventListeners(orchestrator);
+            controller = new ShardManagerController(builder, shards);
+        }
 
-                AudioManager audioManager = channel.getGuild().getAudioManager();
-                if (audioManager.isAttemptingToConnect()) continue;
+        cluster = new ClusterNode(coordinator, controller, player);
+        cluster.start(io, TimeUnit.SECONDS.toMillis(Math.max(1, config.getLong("cluster.heartbeat", 3))));
+        if (isLocalGateway()) new LocalConsole(cluster, player, shards, System.in, System.out).start();
+    }
 
-                audioManager.openAudioConnection(channel);
-                start = true;
-            }
+    /**
+     * @return config.yml as it is on disk now, with the defaults filled in
+     */
+    static Configuration loadConfig() throws IOException {
+        Configuration config = new Configuration(new File("config.yml"), MusicCore.class.getClassLoader().getResourceAsStream("config.yml"), true);
+        config.autoload();
+        return config;
+    }
 
-            if (config.contains(path + "playlist")) {
-                for (String url : config.getStringList(path + "playlist")) {
-                    player.addToPlaylist(guild, url);
-                }
-            }
+    /**
+     * @return true if cluster mode runs against the local stand-in for the gateway instead of Discord
+     */
+    private boolean isLocalGateway() {
+        return config.getBoolean("cluster.enabled", false) && "local".equalsIgnoreCase(config.getString("cluster.gateway", "discord"));
+    }
 
-            if (config.contains(path + "loop")) {
-                player.setLooping(guild, config.getBoolean(path + "loop"));
+    private void startMetrics(BotListener listener) {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.register(player);
+        registry.register(listener);
+        registry.register(outbound);
+
+        if (config.getBoolean("metrics.jmx", true)) {
+            try {
+                new MetricsMBean(registry).register();
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+        }
 
-            if (start) {
-                ScheduledExecutorService runLater = Executors.newSingleThreadScheduledExecutor();
-                runLater.schedule(() -> player.play(guild), 2, TimeUnit.SECONDS);
+        int port = config.getInt("metrics.port", 0);
+        if (port > 0) {
+            try {
+                new MetricsServer(registry).start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-
     }
 }
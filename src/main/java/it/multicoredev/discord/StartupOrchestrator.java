@@ -0,0 +1,215 @@
+package it.multicoredev.discord;
+
+import it.multicoredev.discord.cluster.Coordinator;
+import it.multicoredev.discord.cluster.Handoff;
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.discord.player.GuildMusicManager;
+import it.multicoredev.discord.player.MusicPlayer;
+import it.multicoredev.discord.settings.GuildSettings;
+import it.multicoredev.discord.settings.GuildSettingsStore;
+import it.multicoredev.mclib.yaml.Configuration;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.VoiceChannel;
+import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.managers.AudioManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class StartupOrchestrator extends ListenerAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+    private final MusicPlayer player;
+    private final GuildSettingsStore settings;
+    private final ScheduledExecutorService scheduler;
+    private final int concurrency;
+    private final long connectInterval;
+    private final long connectTimeout;
+    private final Deque<Guild> pending = new ArrayDeque<>();
+    private final LongConcurrentMap<Long> handoffChannels = new LongConcurrentMap<>();
+    private volatile Coordinator coordinator;
+    private int running;
+    private long nextConnectAt;
+    private long startedAt;
+
+    public StartupOrchestrator(Configuration config, MusicPlayer player, GuildSettingsStore settings, ScheduledExecutorService scheduler) {
+        this.player = player;
+        this.settings = settings;
+        this.scheduler = scheduler;
+        this.concurrency = Math.max(1, config.getInt("startup.concurrency", 4));
+        this.connectInterval = Math.max(0, config.getLong("startup.connect-interval", 250));
+        this.connectTimeout = Math.max(1, config.getLong("startup.connect-timeout", 30));
+    }
+
+    /**
+     * Guilds handed off by other nodes of the cluster are adopted when their shard becomes ready here.
+     */
+    public void setCoordinator(Coordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Each shard restores its own guilds as soon as its session is ready, without waiting for the others.
+     */
+    @Override
+    public void onReady(ReadyEvent event) {
+        JDA jda = event.getJDA();
+        LOGGER.info("Shard {} ready with {} guilds.", jda.getShardInfo() != null ? jda.getShardInfo().getShardString() : "[0 / 1]", jda.getGuilds().size());
+        restore(jda);
+    }
+
+    /**
+     * Restores every guild of the given session that has saved settings or a journal: queues come from the guild's journal when one exists,
+     * otherwise playlists are resolved with bounded concurrency,
+     * voice connections are opened one slot at a time and playback starts once the connection is established.
+     */
+    public void restore(JDA jda) {
+        List<Guild> guilds = new ArrayList<>();
+
+        for (Guild guild : jda.getGuilds()) {
+            adopt(guild);
+            if (settings.exists(guild.getIdLong()) || player.hasJournal(guild)) guilds.add(guild);
+        }
+
+        if (guilds.isEmpty()) return;
+
+        synchronized (this) {
+            if (pending.isEmpty() && running == 0) startedAt = System.nanoTime();
+            pending.addAll(guilds);
+            drain();
+        }
+    }
+
+    private void adopt(Guild guild) {
+        Coordinator coordinator = this.coordinator;
+        if (coordinator == null) return;
+
+        try {
+            byte[] state = coordinator.claim(guild.getIdLong());
+            if (state == null) return;
+
+            Handoff handoff = Handoff.fromBytes(state);
+            player.adopt(handoff);
+            if (handoff.getVoiceChannel() != 0) handoffChannels.put(guild.getIdLong(), handoff.getVoiceChannel());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void drain() {
+        while (running < concurrency && !pending.isEmpty()) {
+            Guild guild = pending.poll();
+            running++;
+            scheduler.execute(() -> restoreGuild(guild));
+        }
+    }
+
+    private synchronized void release() {
+        running--;
+        drain();
+    }
+
+    private void restoreGuild(Guild guild) {
+        long start = System.nanoTime();
+        GuildSettings guildSettings = settings.get(guild.getIdLong());
+        CompletableFuture<Void> loaded;
+
+        try {
+            List<CompletableFuture<Void>> loads = new ArrayList<>();
+
+            if (player.hasJournal(guild)) {
+                player.getMusicManager(guild);
+            } else {
+                if (guildSettings.getLoop() != null) {
+                    player.setLooping(guild, guildSettings.getLoop());
+                }
+
+                for (String url : guildSettings.getPlaylist()) {
+                    loads.add(player.addToPlaylist(guild, url));
+                }
+            }
+
+            loaded = CompletableFuture.allOf(loads.toArray(new CompletableFuture[0]));
+        } catch (Exception e) {
+            e.printStackTrace();
+            release();
+            return;
+        }
+
+        loaded.whenComplete((result, error) -> release());
+
+        // A guild handed off while playing reconnects to the channel it was playing in
+        Long handoffChannel = handoffChannels.remove(guild.getIdLong());
+        long channelId = handoffChannel != null ? handoffChannel : guildSettings.isAutostart() ? guildSettings.getChannel() : 0;
+        if (channelId == 0) return;
+
+        VoiceChannel channel = guild.getVoiceChannelById(channelId);
+        if (channel == null) return;
+
+        GuildMusicManager musicManager = player.getMusicManager(guild);
+        CompletableFuture<Void> connected = new CompletableFuture<>();
+        musicManager.getConnectionListener().whenConnected(() -> connected.complete(null));
+
+        scheduleConnect(guild.getAudioManager(), channel);
+
+        scheduler.schedule(() -> {
+            if (!connected.isDone()) LOGGER.warn("Guild {} did not connect to voice within {} seconds.", guild.getId(), connectTimeout);
+        }, connectTimeout, TimeUnit.SECONDS);
+
+        loaded.thenCombine(connected, (a, b) -> b).thenRun(() -> {
+            musicManager.getSendHandler().onNextFrame(() -> {
+                long now = System.nanoTime();
+                LOGGER.info("Guild {} audible {} ms after its restore began ({} ms since startup).",
+                        guild.getId(), TimeUnit.NANOSECONDS.toMillis(now - start), TimeUnit.NANOSECONDS.toMillis(now - startedAt));
+            });
+
+            player.play(guild);
+        });
+    }
+
+    private void scheduleConnect(AudioManager audioManager, VoiceChannel channel) {
+        long delay;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long at = Math.max(now, nextConnectAt);
+            nextConnectAt = at + connectInterval;
+            delay = at - now;
+        }
+
+        scheduler.schedule(() -> {
+            if (audioManager.isConnected() || audioManager.isAttemptingToConnect()) return;
+            audioManager.openAudioConnection(channel);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,11 +1,13 @@
 package it.multicoredev.discord;
 
-import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.Role;
+import it.multicoredev.discord.messaging.MessageCoalescer;
+import it.multicoredev.discord.messaging.MessageTemplate;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Copyright © 2020 by Lorenzo Magni
@@ -28,35 +30,88 @@ import java.util.List;
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class Utils {
+    private static volatile MessageCoalescer outbound;
 
-    public static void sendMessage(TextChannel channel, String msg) {
-        channel.sendMessage(msg).queue();
+    public static void setOutbound(MessageCoalescer coalescer) {
+        outbound = coalescer;
     }
 
-    public static void sendMessage(TextChannel channel, String msg, String[] targets, String[] replacements) {
-        for (int i = 0; i < targets.length; i++) {
-            msg = msg.replace(targets[i], replacements[i]);
-        }
+    public static void sendMessage(TextChannel channel, String msg) {
+        MessageCoalescer coalescer = outbound;
 
-        sendMessage(channel, msg);
+        if (coalescer == null) {
+            channel.sendMessage(msg).queue();
+        } else {
+            coalescer.submit(channel, msg);
+        }
     }
 
-    public static void sendMessage(TextChannel channel, String msg, String target, String replacement) {
-        sendMessage(channel, msg, new String[]{target}, new String[]{replacement});
+    public static void sendStatusMessage(TextChannel channel, String key, String msg) {
+        MessageCoalescer coalescer = outbound;
+
+        if (coalescer == null) {
+            channel.sendMessage(msg).queue();
+        } else {
+            coalescer.submit(channel, msg, key);
+        }
     }
 
-    public static boolean hasRole(Member member, String... roles) {
-        if (roles == null || roles.length == 0 || (roles.length == 1 && roles[0].isEmpty())) return true;
+    public static void sendMessage(TextChannel channel, String msg, Consumer<Message> callback) {
+        MessageCoalescer coalescer = outbound;
 
-        List<String> rolesLowered = new ArrayList<>();
-        for (String role : roles) {
-            rolesLowered.add(role.toLowerCase());
+        if (coalescer == null) {
+            channel.sendMessage(msg).queue(callback, error -> callback.accept(null));
+        } else {
+            coalescer.send(channel, msg, callback);
         }
+    }
+
+    public static void editMessage(TextChannel channel, Message message, String msg) {
+        MessageCoalescer coalescer = outbound;
 
-        for (Role role : member.getRoles()) {
-            if (rolesLowered.contains(role.getName())) return true;
+        if (coalescer == null) {
+            message.editMessage(msg).queue();
+        } else {
+            coalescer.edit(channel, message, msg);
         }
+    }
+
+    public static void sendStatusMessage(TextChannel channel, String key, MessageTemplate template) {
+        sendStatusMessage(channel, key, template.render());
+    }
+
+    public static void sendStatusMessage(TextChannel channel, String key, MessageTemplate template, String[] targets, String[] replacements) {
+        sendStatusMessage(channel, key, template.render(targets, replacements));
+    }
+
+    public static void sendStatusMessage(TextChannel channel, String key, MessageTemplate template, String target, String replacement) {
+        sendStatusMessage(channel, key, template.render(target, replacement));
+    }
+
+    public static void sendMessage(TextChannel channel, MessageTemplate template) {
+        sendMessage(channel, template.render());
+    }
+
+    public static void sendMessage(TextChannel channel, MessageTemplate template, String[] targets, String[] replacements) {
+        sendMessage(channel, template.render(targets, replacements));
+    }
+
+    public static void sendMessage(TextChannel channel, MessageTemplate template, String target, String replacement) {
+        sendMessage(channel, template.render(target, replacement));
+    }
+
+    public static ThreadFactory threadFactory(String name) {
+        return threadFactory(name, Thread.NORM_PRIORITY);
+    }
+
+    public static ThreadFactory threadFactory(String name, int priority) {
+        AtomicInteger counter = new AtomicInteger();
 
-        return false;
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
     }
 }
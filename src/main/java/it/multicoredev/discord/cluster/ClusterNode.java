@@ -0,0 +1,177 @@
+package it.multicoredev.discord.cluster;
+
+import it.multicoredev.discord.player.MusicPlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ClusterNode {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterNode.class);
+    private static final int REPLICAS = 64;
+
+    private final Coordinator coordinator;
+    private final ShardController shards;
+    private final MusicPlayer player;
+    private final Map<Integer, Long> owned = new HashMap<>();
+    private Set<String> members = Collections.emptySet();
+    private ConsistentHashRing ring = new ConsistentHashRing(Collections.emptySet(), REPLICAS);
+    private ScheduledFuture<?> task;
+
+    /**
+     * Splits the bot's shards between the live nodes with a consistent hash ring. A node only runs a shard while
+     * it holds its lease; before giving a shard up it stops it and hands every guild of the shard off through the
+     * coordinator, and the new owner adopts them when the shard becomes ready on its side.
+     * <p>
+     * The epoch of every lease held is remembered. A node that stalled past its heartbeat timeout finds on its next
+     * round that its lease has another owner or epoch, and stops the shard without handing anything off.
+     */
+    public ClusterNode(Coordinator coordinator, ShardController shards, MusicPlayer player) {
+        this.coordinator = coordinator;
+        this.shards = shards;
+        this.player = player;
+    }
+
+    public void start(ScheduledExecutorService scheduler, long intervalMs) {
+        task = scheduler.scheduleWithFixedDelay(this::rebalance, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized Set<Integer> getOwnedShards() {
+        return new HashSet<>(owned.keySet());
+    }
+
+    synchronized void rebalance() {
+        try {
+            // Before the heartbeat renews this node: leases lost while it was not renewing must be noticed first
+            verifyLeases();
+            coordinator.heartbeat();
+
+            Set<String> current = coordinator.getMembers();
+            if (!current.equals(members)) {
+                LOGGER.info("Cluster members changed: {}", current);
+                members = current;
+                ring = new ConsistentHashRing(current, REPLICAS);
+            }
+
+            for (int shard = 0; shard < shards.getShardsTotal(); shard++) {
+                boolean mine = coordinator.getNodeId().equals(ring.owner(shard));
+
+                if (owned.containsKey(shard) && !mine) {
+                    handOff(shard);
+                } else if (!owned.containsKey(shard) && mine) {
+                    long epoch = coordinator.acquire(shard);
+                    if (epoch < 0) continue;
+
+                    owned.put(shard, epoch);
+                    shards.start(shard);
+                    LOGGER.info("Took over shard {} at epoch {}.", shard, epoch);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hands every owned shard off and leaves the cluster, so the other nodes take over without waiting for this
+     * node's heartbeat to time out.
+     */
+    public synchronized void leave() {
+        if (task != null) task.cancel(false);
+
+        for (int shard : new ArrayList<>(owned.keySet())) {
+            try {
+                handOff(shard);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            coordinator.leave();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops every owned shard whose lease is no longer this node's. Its guilds already belong to the lease's new
+     * owner, so their local state is thrown away instead of handed off.
+     */
+    private void verifyLeases() throws IOException {
+        Iterator<Map.Entry<Integer, Long>> iterator = owned.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Long> entry = iterator.next();
+            int shard = entry.getKey();
+            if (coordinator.getEpoch(shard) == entry.getValue()) continue;
+
+            LOGGER.warn("Lost the lease of shard {} (epoch {}), stopping it.", shard, entry.getValue());
+            iterator.remove();
+            shards.stop(shard);
+
+            for (long guildId : player.getKnownGuilds()) {
+                if (ConsistentHashRing.shardOf(guildId, shards.getShardsTotal()) == shard) player.discard(guildId);
+            }
+        }
+    }
+
+    private void handOff(int shard) throws IOException {
+        long epoch = owned.get(shard);
+        Map<Long, Long> channels = new HashMap<>();
+        for (long guildId : player.getKnownGuilds()) {
+            if (ConsistentHashRing.shardOf(guildId, shards.getShardsTotal()) == shard) {
+                channels.put(guildId, player.getConnectedChannel(guildId));
+            }
+        }
+
+        // Channels are read first, the shard's voice connections close with it
+        shards.stop(shard);
+
+        int handed = 0;
+        for (Map.Entry<Long, Long> entry : channels.entrySet()) {
+            Handoff handoff = player.release(entry.getKey(), entry.getValue(), epoch);
+            if (handoff == null) continue;
+
+            if (coordinator.offer(shard, epoch, handoff.getGuildId(), handoff.toBytes())) {
+                handed++;
+            } else {
+                LOGGER.warn("Shard {} has a lease newer than epoch {}, guild {} was not handed off.", shard, epoch, handoff.getGuildId());
+            }
+        }
+
+        coordinator.release(shard);
+        owned.remove(shard);
+        LOGGER.info("Handed off shard {} with {} guilds.", shard, handed);
+    }
+}
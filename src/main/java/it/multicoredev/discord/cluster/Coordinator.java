@@ -0,0 +1,73 @@
+package it.multicoredev.discord.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public interface Coordinator {
+
+    String getNodeId();
+
+    /**
+     * Announces this node or refreshes its liveness; nodes that stop calling it are dropped after a timeout.
+     */
+    void heartbeat() throws IOException;
+
+    void leave() throws IOException;
+
+    /**
+     * @return the ids of every live node, this one included
+     */
+    Set<String> getMembers() throws IOException;
+
+    /**
+     * Takes the lease of a shard. Only one node can hold a lease; a lease held by a dead node can be taken over.
+     * Every new lease of a shard gets a higher epoch than the ones before it.
+     *
+     * @return the epoch of the lease this node now holds, or -1 if another node holds it
+     */
+    long acquire(int shard) throws IOException;
+
+    /**
+     * Reads the shard's lease again.
+     *
+     * @return the epoch of the lease if this node still holds it, or -1 if it was taken over or released
+     */
+    long getEpoch(int shard) throws IOException;
+
+    void release(int shard) throws IOException;
+
+    /**
+     * Leaves a guild's serialized state for its next owner. The state is refused if a lease newer than the given
+     * epoch was taken on the shard, as its owner is no longer this node.
+     *
+     * @return false if the state was refused
+     */
+    boolean offer(int shard, long epoch, long guildId, byte[] state) throws IOException;
+
+    /**
+     * Takes the state offered for a guild, if any.
+     *
+     * @return the state or null if nothing was offered
+     */
+    byte[] claim(long guildId) throws IOException;
+}
@@ -0,0 +1,279 @@
+package it.multicoredev.discord.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class FileCoordinator implements Coordinator {
+    private static final String NODE_EXTENSION = ".node";
+
+    private final String nodeId;
+    private final File nodes;
+    private final File leases;
+    private final File handoffs;
+    private final long timeoutMs;
+
+    /**
+     * Coordinates the nodes sharing a directory: every node keeps a heartbeat file, shard leases are files
+     * created exclusively and handed off guild state is dropped in as files. Meant for nodes on the same host
+     * or a shared volume.
+     */
+    public FileCoordinator(File directory, String nodeId, long timeoutMs) {
+        this.nodeId = nodeId;
+        this.nodes = new File(directory, "nodes");
+        this.leases = new File(directory, "leases");
+        this.handoffs = new File(directory, "handoffs");
+        this.timeoutMs = timeoutMs;
+
+        for (File dir : new File[]{nodes, leases, handoffs}) {
+            if (!dir.exists() && !dir.mkdirs()) throw new IllegalStateException("Cannot create cluster directory " + dir);
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void heartbeat() throws IOException {
+        writeAtomically(new File(nodes, nodeId + NODE_EXTENSION), Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void leave() throws IOException {
+        Files.deleteIfExists(new File(nodes, nodeId + NODE_EXTENSION).toPath());
+    }
+
+    @Override
+    public Set<String> getMembers() throws IOException {
+        Set<String> members = new HashSet<>();
+        File[] files = nodes.listFiles((dir, name) -> name.endsWith(NODE_EXTENSION));
+        if (files == null) return members;
+
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - NODE_EXTENSION.length());
+            if (id.equals(nodeId) || isAlive(file, now)) members.add(id);
+        }
+
+        return members;
+    }
+
+    /**
+     * The shard's last epoch is kept in a file of its own, so it survives the lease being released. Only the node
+     * that just created the lease, or the one taking a dead lease over under the takeover lock, writes it.
+     */
+    @Override
+    public long acquire(int shard) throws IOException {
+        File lease = getLease(shard);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            long epoch = readEpoch(shard) + 1;
+
+            try {
+                createLease(lease, epoch);
+                writeAtomically(getEpochFile(shard), Long.toString(epoch).getBytes(StandardCharsets.UTF_8));
+                return epoch;
+            } catch (FileAlreadyExistsException e) {
+                Lease current = readLease(lease);
+                if (current == null) continue;
+                if (current.owner.equals(nodeId)) return current.epoch;
+                if (getMembers().contains(current.owner)) return -1;
+                if (!takeOver(shard, lease, current)) return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public long getEpoch(int shard) throws IOException {
+        Lease lease = readLease(getLease(shard));
+        return lease != null && lease.owner.equals(nodeId) ? lease.epoch : -1;
+    }
+
+    /**
+     * Removes the lease of a dead owner. Several nodes may find it dead at once, and one of them may already have
+     * replaced it by the time another gets here, so the lease is only removed by the node holding the shard's
+     * takeover lock, after reading it again. The new lease is then created exclusively as usual.
+     * <p>
+     * The lock is an OS lock on a file that is never deleted; the OS drops it when its holder dies, so there is no
+     * stale lock to clear.
+     *
+     * @return false if another node is taking the lease over or already has
+     */
+    private boolean takeOver(int shard, File lease, Lease dead) throws IOException {
+        File lock = new File(leases, shard + ".takeover");
+
+        try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock held = tryLock(channel)) {
+            if (held == null) return false;
+
+            // Leases are only replaced under the lock, so the owner read here is still the owner at the delete
+            Lease current = readLease(lease);
+            if (current == null || !dead.owner.equals(current.owner) || dead.epoch != current.epoch) return current == null;
+
+            // The dead owner may have died before recording its epoch; the next lease must still be newer than its
+            if (current.epoch > readEpoch(shard)) {
+                writeAtomically(getEpochFile(shard), Long.toString(current.epoch).getBytes(StandardCharsets.UTF_8));
+            }
+
+            Files.delete(lease.toPath());
+            return true;
+        }
+    }
+
+    /**
+     * @return the lock or null if another node, or another thread of this one, holds it
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the lease under a temporary name and links it in place, so it is created exclusively and nobody reads
+     * it before its owner is in it.
+     */
+    private void createLease(File lease, long epoch) throws IOException {
+        File temp = new File(leases, lease.getName() + "." + nodeId + ".tmp");
+        Files.write(temp.toPath(), (nodeId + "\n" + epoch).getBytes(StandardCharsets.UTF_8));
+
+        try {
+            Files.createLink(lease.toPath(), temp.toPath());
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    @Override
+    public void release(int shard) throws IOException {
+        File lease = getLease(shard);
+        Lease current = readLease(lease);
+        if (current != null && current.owner.equals(nodeId)) Files.deleteIfExists(lease.toPath());
+    }
+
+    @Override
+    public boolean offer(int shard, long epoch, long guildId, byte[] state) throws IOException {
+        if (epoch < readEpoch(shard)) return false;
+
+        writeAtomically(new File(handoffs, guildId + ".state"), state);
+        return true;
+    }
+
+    @Override
+    public byte[] claim(long guildId) throws IOException {
+        File file = new File(handoffs, guildId + ".state");
+        if (!file.exists()) return null;
+
+        try {
+            byte[] state = Files.readAllBytes(file.toPath());
+            Files.delete(file.toPath());
+            return state;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean isAlive(File file, long now) {
+        try {
+            long beat = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+            return now - beat < timeoutMs;
+        } catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private File getLease(int shard) {
+        return new File(leases, shard + ".lease");
+    }
+
+    private File getEpochFile(int shard) {
+        return new File(leases, shard + ".epoch");
+    }
+
+    /**
+     * @return the epoch of the shard's newest lease, 0 if it never had one
+     */
+    private long readEpoch(int shard) throws IOException {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(getEpochFile(shard).toPath()), StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the lease or null if there is none; leases written before epochs existed have epoch 0
+     */
+    private static Lease readLease(File file) throws IOException {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        int newline = content.indexOf('\n');
+        if (newline < 0) return new Lease(content, 0);
+
+        try {
+            return new Lease(content.substring(0, newline).trim(), Long.parseLong(content.substring(newline + 1).trim()));
+        } catch (NumberFormatException e) {
+            return new Lease(content.substring(0, newline).trim(), 0);
+        }
+    }
+
+    /**
+     * The temporary file is named after this node, so two nodes writing the same file never share one.
+     */
+    private void writeAtomically(File file, byte[] data) throws IOException {
+        File temp = new File(file.getPath() + "." + nodeId + ".tmp");
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static final class Lease {
+        private final String owner;
+        private final long epoch;
+
+        private Lease(String owner, long epoch) {
+            this.owner = owner;
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package it.multicoredev.discord.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class Handoff {
+    private static final int VERSION = 2;
+
+    private final long guildId;
+    private final long voiceChannel;
+    private final long epoch;
+    private final byte[] journal;
+
+    /**
+     * @param voiceChannel the voice channel the guild was connected to, 0 if none
+     * @param epoch        the epoch of the shard lease the sending node held when it packed the guild
+     * @param journal      the guild's compacted queue journal: queue, loop flag, current track and position
+     */
+    public Handoff(long guildId, long voiceChannel, long epoch, byte[] journal) {
+        this.guildId = guildId;
+        this.voiceChannel = voiceChannel;
+        this.epoch = epoch;
+        this.journal = journal;
+    }
+
+    public long getGuildId() {
+        return guildId;
+    }
+
+    public long getVoiceChannel() {
+        return voiceChannel;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public byte[] getJournal() {
+        return journal;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(journal.length + 32);
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(guildId);
+            out.writeLong(voiceChannel);
+            out.writeLong(epoch);
+            out.writeInt(journal.length);
+            out.write(journal);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static Handoff fromBytes(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int version = in.readUnsignedByte();
+            if (version != VERSION && version != 1) throw new IOException("Unsupported handoff version " + version);
+
+            long guildId = in.readLong();
+            long voiceChannel = in.readLong();
+            long epoch = version == 1 ? 0 : in.readLong();
+            byte[] journal = new byte[in.readInt()];
+            in.readFully(journal);
+            return new Handoff(guildId, voiceChannel, epoch, journal);
+        }
+    }
+}
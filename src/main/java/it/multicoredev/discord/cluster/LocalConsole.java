@@ -0,0 +1,138 @@
+package it.multicoredev.discord.cluster;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.Utils;
+import it.multicoredev.discord.player.MusicPlayer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LocalConsole implements Runnable {
+    private final ClusterNode cluster;
+    private final MusicPlayer player;
+    private final int shardsTotal;
+    private final InputStream in;
+    private final PrintStream out;
+
+    /**
+     * Drives the guilds of the local gateway from the standard input, one command per line, since there is no Discord
+     * to take commands from:
+     * <ul>
+     * <li>queue &lt;guild&gt; &lt;identifier&gt;: loads the identifier into the guild's queue</li>
+     * <li>list &lt;guild&gt;: prints the identifiers queued for the guild</li>
+     * <li>shards: prints the shards this node owns</li>
+     * </ul>
+     * Guilds are only served by the node owning their shard, others answer not-owned.
+     */
+    public LocalConsole(ClusterNode cluster, MusicPlayer player, int shardsTotal, InputStream in, PrintStream out) {
+        this.cluster = cluster;
+        this.player = player;
+        this.shardsTotal = shardsTotal;
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Nothing connects to Discord in local mode and every other thread is a daemon, so the console thread is what keeps
+     * the node running until it is stopped.
+     */
+    public void start() {
+        Thread thread = Utils.threadFactory("MusicCore-Console").newThread(this);
+        thread.setDaemon(false);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    execute(line.trim().split("\\s+"));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    out.println("error " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Without an input (e.g. started in the background) the node keeps serving its shards
+        try {
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void execute(String[] args) {
+        switch (args[0].toLowerCase()) {
+            case "queue":
+                if (args.length < 3) {
+                    out.println("usage queue <guild> <identifier>");
+                    return;
+                }
+
+                long queueGuild = Long.parseLong(args[1]);
+                if (!isOwned(queueGuild)) return;
+
+                player.addToPlaylist(queueGuild, args[2]).whenComplete((result, error) ->
+                        out.println("queued " + queueGuild + " " + player.getPlaylist(queueGuild).size()));
+                return;
+            case "list":
+                if (args.length < 2) {
+                    out.println("usage list <guild>");
+                    return;
+                }
+
+                long listGuild = Long.parseLong(args[1]);
+                if (!isOwned(listGuild)) return;
+
+                List<AudioTrack> playlist = player.getPlaylist(listGuild);
+                StringBuilder builder = new StringBuilder("list ").append(listGuild).append(' ').append(playlist.size());
+                for (AudioTrack track : playlist) {
+                    builder.append(' ').append(track.getIdentifier());
+                }
+
+                out.println(builder);
+                return;
+            case "shards":
+                out.println("shards " + cluster.getOwnedShards());
+                return;
+            default:
+                out.println("unknown " + args[0]);
+        }
+    }
+
+    private boolean isOwned(long guildId) {
+        if (cluster.getOwnedShards().contains(ConsistentHashRing.shardOf(guildId, shardsTotal))) return true;
+
+        out.println("not-owned " + guildId);
+        return false;
+    }
+}
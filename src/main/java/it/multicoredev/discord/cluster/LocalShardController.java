@@ -0,0 +1,83 @@
+package it.multicoredev.discord.cluster;
+
+import it.multicoredev.discord.player.MusicPlayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LocalShardController implements ShardController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalShardController.class);
+
+    private final Coordinator coordinator;
+    private final MusicPlayer player;
+    private final int shardsTotal;
+    private final List<Long> guilds;
+
+    /**
+     * Stands in for the Discord gateway, so cluster mode can be tried with a few processes on one machine and
+     * without a bot token. It pretends to serve a fixed list of guilds: starting a shard adopts what was handed off
+     * for the shard's guilds, as a real shard does once it is ready, and stopping it has no connections to close.
+     * Queues still move between the nodes through the journal, the same way as with the real gateway.
+     */
+    public LocalShardController(Coordinator coordinator, MusicPlayer player, int shardsTotal, Collection<Long> guilds) {
+        this.coordinator = coordinator;
+        this.player = player;
+        this.shardsTotal = shardsTotal;
+        this.guilds = new ArrayList<>(guilds);
+    }
+
+    @Override
+    public int getShardsTotal() {
+        return shardsTotal;
+    }
+
+    @Override
+    public void start(int shard) {
+        int adopted = 0;
+
+        for (long guildId : guilds) {
+            if (ConsistentHashRing.shardOf(guildId, shardsTotal) != shard) continue;
+
+            try {
+                byte[] state = coordinator.claim(guildId);
+                if (state == null) continue;
+
+                player.adopt(Handoff.fromBytes(state));
+                adopted++;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        LOGGER.info("Local shard {} started, adopted {} guilds.", shard, adopted);
+    }
+
+    @Override
+    public void stop(int shard) {
+        LOGGER.info("Local shard {} stopped.", shard);
+    }
+}
@@ -0,0 +1,230 @@
+package it.multicoredev.discord.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class IndexedRing<T> {
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] elements;
+    private int head;
+    private int size;
+
+    public IndexedRing() {
+        elements = new Object[MIN_CAPACITY];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index);
+        return (T) elements[slot(index)];
+    }
+
+    public void add(T element) {
+        grow(size + 1);
+        elements[slot(size)] = element;
+        size++;
+    }
+
+    public void addAll(Collection<? extends T> collection) {
+        grow(size + collection.size());
+        for (T element : collection) {
+            elements[slot(size)] = element;
+            size++;
+        }
+    }
+
+    /**
+     * Inserts an element at the given index, shifting whichever side of the ring is shorter.
+     */
+    public void add(int index, T element) {
+        if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        grow(size + 1);
+
+        if (index < size - index) {
+            head = (head - 1 + elements.length) & (elements.length - 1);
+            for (int i = 0; i < index; i++) {
+                elements[slot(i)] = elements[slot(i + 1)];
+            }
+        } else {
+            for (int i = size; i > index; i--) {
+                elements[slot(i)] = elements[slot(i - 1)];
+            }
+        }
+
+        elements[slot(index)] = element;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        if (size == 0) return null;
+
+        T element = (T) elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return element;
+    }
+
+    /**
+     * Moves the first element to the end without allocating and returns it.
+     */
+    @SuppressWarnings("unchecked")
+    public T rotate() {
+        if (size == 0) return null;
+
+        T element = (T) elements[head];
+        if (size == elements.length) {
+            head = (head + 1) & (elements.length - 1);
+        } else {
+            elements[head] = null;
+            head = (head + 1) & (elements.length - 1);
+            elements[slot(size - 1)] = element;
+        }
+
+        return element;
+    }
+
+    /**
+     * Drops the first count elements, or rotates them to the end when keep is true.
+     */
+    public void advance(int count, boolean keep) {
+        if (count < 0 || count > size) throw new IndexOutOfBoundsException("Index: " + count + ", Size: " + size);
+
+        for (int i = 0; i < count; i++) {
+            if (keep) rotate();
+            else poll();
+        }
+    }
+
+    /**
+     * Removes the element at the given index, shifting whichever side of the ring is shorter.
+     */
+    @SuppressWarnings("unchecked")
+    public T remove(int index) {
+        checkIndex(index);
+        T element = (T) elements[slot(index)];
+
+        if (index < size - index - 1) {
+            for (int i = index; i > 0; i--) {
+                elements[slot(i)] = elements[slot(i - 1)];
+            }
+            elements[head] = null;
+            head = (head + 1) & (elements.length - 1);
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                elements[slot(i)] = elements[slot(i + 1)];
+            }
+            elements[slot(size - 1)] = null;
+        }
+
+        size--;
+        return element;
+    }
+
+    public void move(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+        if (from == to) return;
+
+        add(to, remove(from));
+    }
+
+    /**
+     * Fisher-Yates shuffle in place. The same seed always produces the same order for the same size.
+     */
+    public void shuffle(Random random) {
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int a = slot(i);
+            int b = slot(j);
+            Object element = elements[a];
+            elements[a] = elements[b];
+            elements[b] = element;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(elements, null);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies only the requested range, so callers can page through large rings cheaply.
+     */
+    public List<T> subList(int from, int count) {
+        int to = Math.min(size, from + Math.max(0, count));
+        List<T> list = new ArrayList<>(Math.max(0, to - from));
+
+        for (int i = Math.max(0, from); i < to; i++) {
+            list.add(get(i));
+        }
+
+        return list;
+    }
+
+    public void forEach(Consumer<? super T> consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(get(i));
+        }
+    }
+
+    private int slot(int index) {
+        return (head + index) & (elements.length - 1);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void grow(int required) {
+        if (required <= elements.length) return;
+
+        int capacity = elements.length;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+
+        Object[] resized = new Object[capacity];
+        for (int i = 0; i < size; i++) {
+            resized[i] = elements[slot(i)];
+        }
+
+        elements = resized;
+        head = 0;
+    }
+}
@@ -0,0 +1,224 @@
+package it.multicoredev.discord.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LongConcurrentMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table<V> table;
+    private int used;
+    private volatile int size;
+
+    public LongConcurrentMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongConcurrentMap(int expectedSize) {
+        table = new Table<>(capacityFor(expectedSize));
+    }
+
+    /**
+     * Lock-free lookup: probes the current table without boxing the key or allocating.
+     */
+    public V get(long key) {
+        Entry<V> entry = table.find(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the value mapped to the key, creating it with the factory if absent.
+     * The factory is invoked at most once per key and only while the key is missing.
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        V value = get(key);
+        if (value != null) return value;
+
+        synchronized (this) {
+            Entry<V> entry = table.find(key);
+            if (entry != null && entry.value != null) return entry.value;
+
+            value = factory.apply(key);
+            if (value == null) return null;
+
+            store(entry, key, value);
+            return value;
+        }
+    }
+
+    public synchronized V put(long key, V value) {
+        if (value == null) throw new NullPointerException("value");
+
+        Entry<V> entry = table.find(key);
+        V previous = entry == null ? null : entry.value;
+        if (previous != null) {
+            entry.value = value;
+            return previous;
+        }
+
+        store(entry, key, value);
+        return null;
+    }
+
+    public synchronized V remove(long key) {
+        Entry<V> entry = table.find(key);
+        if (entry == null || entry.value == null) return null;
+
+        V previous = entry.value;
+        entry.value = null;
+        size--;
+        return previous;
+    }
+
+    public synchronized boolean remove(long key, V value) {
+        Entry<V> entry = table.find(key);
+        if (entry == null || entry.value == null || entry.value != value) return false;
+
+        entry.value = null;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(EntryConsumer<? super V> consumer) {
+        Table<V> current = table;
+
+        for (int i = 0; i < current.slots.length(); i++) {
+            Entry<V> entry = current.slots.get(i);
+            if (entry == null) continue;
+
+            V value = entry.value;
+            if (value != null) consumer.accept(entry.key, value);
+        }
+    }
+
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach((key, value) -> values.add(value));
+        return values;
+    }
+
+    private void store(Entry<V> tombstone, long key, V value) {
+        if (tombstone != null) {
+            tombstone.value = value;
+            size++;
+            return;
+        }
+
+        if ((used + 1) * 2 > table.slots.length()) resize();
+
+        table.insert(new Entry<>(key, value));
+        used++;
+        size++;
+    }
+
+    private void resize() {
+        Table<V> current = table;
+        Table<V> resized = new Table<>(capacityFor(size + 1));
+        int live = 0;
+
+        for (int i = 0; i < current.slots.length(); i++) {
+            Entry<V> entry = current.slots.get(i);
+            if (entry == null || entry.value == null) continue;
+
+            resized.insert(entry);
+            live++;
+        }
+
+        used = live;
+        table = resized;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 4) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final class Table<V> {
+        private final AtomicReferenceArray<Entry<V>> slots;
+        private final int mask;
+
+        private Table(int capacity) {
+            slots = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        private Entry<V> find(long key) {
+            int index = hash(key) & mask;
+            Entry<V> entry;
+
+            while ((entry = slots.get(index)) != null) {
+                if (entry.key == key) return entry;
+                index = (index + 1) & mask;
+            }
+
+            return null;
+        }
+
+        private void insert(Entry<V> entry) {
+            int index = hash(entry.key) & mask;
+
+            while (slots.get(index) != null) {
+                index = (index + 1) & mask;
+            }
+
+            slots.set(index, entry);
+        }
+    }
+
+    private static final class Entry<V> {
+        private final long key;
+        private volatile V value;
+
+        private Entry(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package it.multicoredev.discord.commands;
+
+import it.multicoredev.discord.Utils;
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.discord.metrics.HistogramFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class CommandDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommandDispatcher.class);
+    private static final int BATCH = 8;
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int queueLimit;
+    private final LongConcurrentMap<Mailbox> mailboxes = new LongConcurrentMap<>();
+    private final HistogramFamily waits = new HistogramFamily();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Runs commands off the gateway thread. Every guild has a mailbox whose commands run one at a time in the order
+     * they arrived; mailboxes with work take turns on the executor, a few commands per turn, so different guilds run
+     * in parallel and a busy guild can not hold a worker for long.
+     * <p>
+     * With virtualThreads on a JDK that has them every turn gets a virtual thread of its own, so a handler blocking
+     * on I/O does not take a worker from the other guilds. Otherwise a fixed pool of workers threads is used.
+     *
+     * @param queueLimit commands a guild may have waiting or running before further ones are refused
+     */
+    public CommandDispatcher(int workers, int queueLimit, boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualExecutor() : null;
+
+        if (virtualExecutor != null) {
+            executor = virtualExecutor;
+            virtual = true;
+        } else {
+            executor = Executors.newFixedThreadPool(Math.max(1, workers), Utils.threadFactory("MusicCore-Commands"));
+            virtual = false;
+        }
+
+        this.queueLimit = Math.max(1, queueLimit);
+        LOGGER.info("Commands run on {}.", virtual ? "virtual threads" : Math.max(1, workers) + " worker threads");
+    }
+
+    /**
+     * Queues a command in the guild's mailbox.
+     *
+     * @param receivedAt {@link System#nanoTime()} when the command's message was received
+     * @return false if the guild already has queueLimit commands waiting; the command is dropped
+     */
+    public boolean submit(long guildId, String command, long receivedAt, Runnable task) {
+        Mailbox mailbox;
+        int size;
+
+        while (true) {
+            mailbox = mailboxes.computeIfAbsent(guildId, id -> new Mailbox());
+            size = mailbox.size.incrementAndGet();
+            if (size > 0) break;
+
+            // Closed by forget(), it is never scheduled again
+            mailboxes.remove(guildId, mailbox);
+        }
+
+        if (size > queueLimit) {
+            mailbox.size.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+
+        pending.incrementAndGet();
+        mailbox.queue.add(new Command(command, receivedAt, task));
+        mailbox.schedule();
+        return true;
+    }
+
+    /**
+     * Drops the guild's mailbox if it has nothing waiting or running; the next command creates a new one.
+     */
+    public void forget(long guildId) {
+        Mailbox mailbox = mailboxes.get(guildId);
+        if (mailbox != null && mailbox.size.compareAndSet(0, CLOSED)) mailboxes.remove(guildId, mailbox);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return time from a command's message being received to its handler starting, by command
+     */
+    public HistogramFamily getWaits() {
+        return waits;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up at runtime, the code is built for older JDKs.
+     *
+     * @return the executor or null if the JDK has no virtual threads
+     */
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private final class Mailbox implements Runnable {
+        private final Queue<Command> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    Command command = queue.poll();
+                    if (command == null) break;
+
+                    pending.decrementAndGet();
+                    waits.get(command.name).record(System.nanoTime() - command.receivedAt);
+
+                    try {
+                        command.task.run();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        // Counted until it has run, so an empty mailbox is also an idle one
+                        size.decrementAndGet();
+                    }
+                }
+            } finally {
+                // Even after an Error; a command queued after the last poll but before the flag is cleared is picked up here
+                scheduled.set(false);
+                if (!queue.isEmpty()) schedule();
+            }
+        }
+    }
+
+    private static final class Command {
+        private final String name;
+        private final long receivedAt;
+        private final Runnable task;
+
+        private Command(String name, long receivedAt, Runnable task) {
+            this.name = name;
+            this.receivedAt = receivedAt;
+            this.task = task;
+        }
+    }
+}
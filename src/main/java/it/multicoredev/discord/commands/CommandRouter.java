@@ -0,0 +1,144 @@
+package it.multicoredev.discord.commands;
+
+import it.multicoredev.mclib.yaml.Configuration;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class CommandRouter {
+    private static final String[] NO_ARGS = new String[0];
+
+    private final Map<String, CommandHandler> handlers = new LinkedHashMap<>();
+    private volatile Node root = new Node();
+
+    /**
+     * Registers a handler for the command configured at {@code commands.<name>}.
+     * The routing table is only updated by {@link #rebuild(Configuration)}.
+     */
+    public synchronized void register(String name, CommandHandler handler) {
+        handlers.put(name, handler);
+    }
+
+    /**
+     * Compiles the {@code commands.*} section into a lowercase trie and swaps it in atomically.
+     */
+    public synchronized void rebuild(Configuration config) {
+        Node compiled = new Node();
+
+        for (Map.Entry<String, CommandHandler> entry : handlers.entrySet()) {
+            String trigger = config.getString("commands." + entry.getKey());
+            if (trigger == null || trigger.isEmpty() || trigger.indexOf(' ') >= 0) continue;
+
+            compiled.insert(trigger.toLowerCase(), new Route(entry.getKey(), entry.getValue(), trigger.length()));
+        }
+
+        root = compiled;
+    }
+
+    /**
+     * Matches the first word of a message against the compiled triggers, ignoring case.
+     * Messages that cannot start any trigger are rejected on their first character without allocating.
+     *
+     * @return the matched route or null if the message is not a command
+     */
+    public Route route(String content) {
+        Node node = root;
+        int length = content.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == ' ') break;
+
+            node = node.child(Character.toLowerCase(c));
+            if (node == null) return null;
+        }
+
+        return node.route;
+    }
+
+    public static String[] parseArgs(String content, int commandLength) {
+        if (content.length() <= commandLength + 1) return NO_ARGS;
+        return content.substring(commandLength + 1).split(" ");
+    }
+
+    public static class Route {
+        private final String name;
+        private final CommandHandler handler;
+        private final int length;
+
+        private Route(String name, CommandHandler handler, int length) {
+            this.name = name;
+            this.handler = handler;
+            this.length = length;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public CommandHandler getHandler() {
+            return handler;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Route route;
+
+        private Node child(char c) {
+            char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children[i];
+            }
+
+            return null;
+        }
+
+        private void insert(String trigger, Route route) {
+            Node node = this;
+
+            for (int i = 0; i < trigger.length(); i++) {
+                char c = trigger.charAt(i);
+                Node next = node.child(c);
+
+                if (next == null) {
+                    next = new Node();
+                    node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.keys[node.keys.length - 1] = c;
+                    node.children[node.children.length - 1] = next;
+                }
+
+                node = next;
+            }
+
+            node.route = route;
+        }
+    }
+}
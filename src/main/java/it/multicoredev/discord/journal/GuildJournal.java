@@ -0,0 +1,174 @@
+package it.multicoredev.discord.journal;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class GuildJournal {
+    static final byte ENQUEUE = 1;
+    static final byte PLAY = 2;
+    static final byte NEXT = 3;
+    static final byte EMPTY = 4;
+    static final byte STOP = 5;
+    static final byte LOOP = 6;
+    static final byte POSITION = 7;
+    static final byte JUMP = 8;
+    static final byte REMOVE = 9;
+    static final byte MOVE = 10;
+    static final byte SHUFFLE = 11;
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final long POSITION_STEP = 1000;
+
+    private final QueueJournal journal;
+    private final File file;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(pending);
+    private final CRC32 crc = new CRC32();
+    private volatile Supplier<AudioPlayer> player;
+    private long lastPosition = -1;
+    private int records;
+
+    GuildJournal(QueueJournal journal, File file, int records) {
+        this.journal = journal;
+        this.file = file;
+        this.records = records;
+    }
+
+    /**
+     * Sets where the player whose playing track position is checkpointed on every flush is looked up.
+     */
+    public void track(Supplier<AudioPlayer> player) {
+        this.player = player;
+    }
+
+    public synchronized void enqueue(AudioTrack track) {
+        append(ENQUEUE, journal.encode(track));
+    }
+
+    public synchronized void play(AudioTrack track) {
+        lastPosition = -1;
+        append(PLAY, journal.encode(track));
+    }
+
+    public synchronized void next() {
+        lastPosition = -1;
+        append(NEXT, EMPTY_PAYLOAD);
+    }
+
+    public synchronized void empty() {
+        append(EMPTY, EMPTY_PAYLOAD);
+    }
+
+    public synchronized void stop() {
+        append(STOP, EMPTY_PAYLOAD);
+    }
+
+    public synchronized void jump(int index) {
+        append(JUMP, ByteBuffer.allocate(Integer.BYTES).putInt(index).array());
+    }
+
+    public synchronized void remove(int index) {
+        append(REMOVE, ByteBuffer.allocate(Integer.BYTES).putInt(index).array());
+    }
+
+    public synchronized void move(int from, int to) {
+        append(MOVE, ByteBuffer.allocate(Integer.BYTES * 2).putInt(from).putInt(to).array());
+    }
+
+    /**
+     * Only the seed is recorded: replaying the same shuffle over the same queue yields the same order.
+     */
+    public synchronized void shuffle(long seed) {
+        append(SHUFFLE, ByteBuffer.allocate(Long.BYTES).putLong(seed).array());
+    }
+
+    public synchronized void loop(boolean loop) {
+        append(LOOP, new byte[]{(byte) (loop ? 1 : 0)});
+    }
+
+    synchronized void flush() throws IOException {
+        checkpoint();
+        if (pending.size() == 0) return;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            if (journal.isFsync()) channel.force(false);
+        }
+
+        pending.reset();
+
+        if (records >= journal.getCompactThreshold()) {
+            records = journal.compact(file);
+        }
+    }
+
+    private void checkpoint() {
+        Supplier<AudioPlayer> source = this.player;
+        if (source == null) return;
+
+        AudioPlayer player = source.get();
+
+        AudioTrack track = player.getPlayingTrack();
+        if (track == null || !track.isSeekable()) return;
+
+        long position = track.getPosition();
+        if (Math.abs(position - lastPosition) < POSITION_STEP) return;
+
+        lastPosition = position;
+        append(POSITION, ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    private void append(byte type, byte[] payload) {
+        try {
+            writeRecord(out, crc, type, payload);
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static void writeRecord(DataOutputStream out, CRC32 crc, byte type, byte[] payload) throws IOException {
+        crc.reset();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+
+        out.writeInt(1 + payload.length);
+        out.writeByte(type);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+}
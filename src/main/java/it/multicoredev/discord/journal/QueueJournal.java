@@ -0,0 +1,391 @@
+package it.multicoredev.discord.journal;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import it.multicoredev.discord.collections.IndexedRing;
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.discord.player.CachedOpusTrack;
+import it.multicoredev.discord.player.LazyTrack;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class QueueJournal {
+    private static final String EXTENSION = ".journal";
+
+    private final AudioPlayerManager manager;
+    private final File directory;
+    private final int compactThreshold;
+    private final boolean fsync;
+    private final LongConcurrentMap<GuildJournal> journals = new LongConcurrentMap<>();
+
+    public QueueJournal(AudioPlayerManager manager, File directory, int compactThreshold, boolean fsync) {
+        this.manager = manager;
+        this.directory = directory;
+        this.compactThreshold = Math.max(16, compactThreshold);
+        this.fsync = fsync;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create journal directory " + directory);
+        }
+    }
+
+    public void start(ScheduledExecutorService scheduler, long flushInterval) {
+        scheduler.scheduleWithFixedDelay(this::flushAll, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean exists(long guildId) {
+        return getFile(guildId).exists();
+    }
+
+    /**
+     * Starts journaling a guild, appending to the records its journal already has on disk.
+     */
+    public GuildJournal open(long guildId) {
+        GuildJournal open = journals.get(guildId);
+        if (open != null) return open;
+
+        // Records left by earlier sessions count towards the compaction threshold too
+        File file = getFile(guildId);
+        int records = 0;
+        try {
+            records = count(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        int existing = records;
+        return journals.computeIfAbsent(guildId, id -> new GuildJournal(this, file, existing));
+    }
+
+    /**
+     * Flushes and forgets the journal of a guild; its file stays on disk for the next restore.
+     */
+    public void close(long guildId) {
+        GuildJournal journal = journals.remove(guildId);
+        if (journal == null) return;
+
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuilds the last journaled state of a guild without any remote lookup. A torn tail left by a crash is
+     * detected by its checksum and cut off.
+     *
+     * @return the restored queue or null if the guild has no journal
+     */
+    public QueueSnapshot restore(long guildId) throws IOException {
+        File file = getFile(guildId);
+        if (!file.exists()) return null;
+
+        State state = replay(file);
+
+        if (state.validLength < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(state.validLength);
+            }
+        }
+
+        AudioTrack current = state.current == null ? null : decode(state.current);
+        if (current != null && state.position > 0 && current.isSeekable()) {
+            current.setPosition(state.position);
+        }
+
+        // Queued tracks only keep their info and encoded form until they are about to play
+        List<AudioTrack> queue = new ArrayList<>(state.queue.size());
+        for (int i = 0; i < state.queue.size(); i++) {
+            byte[] encoded = state.queue.get(i);
+            AudioTrack track = decode(encoded);
+            if (track != null) queue.add(new LazyTrack(manager, track.getInfo(), encoded));
+        }
+
+        return new QueueSnapshot(state.loop, current, queue);
+    }
+
+    /**
+     * Closes the guild's journal and takes its compacted contents off this node, for another node to adopt.
+     *
+     * @return the journal bytes or null if the guild has no journal
+     */
+    public byte[] export(long guildId) throws IOException {
+        close(guildId);
+
+        File file = getFile(guildId);
+        if (!file.exists()) return null;
+
+        compact(file);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Files.delete(file.toPath());
+        return data;
+    }
+
+    /**
+     * Closes the guild's journal and deletes it.
+     */
+    public void delete(long guildId) throws IOException {
+        close(guildId);
+        Files.deleteIfExists(getFile(guildId).toPath());
+    }
+
+    /**
+     * Installs a journal exported by another node; the next restore of the guild replays it.
+     */
+    public void adopt(long guildId, byte[] data) throws IOException {
+        close(guildId);
+
+        File file = getFile(guildId);
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the ids of every guild with a journal on disk
+     */
+    public List<Long> getGuildIds() {
+        List<Long> ids = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) return ids;
+
+        for (String name : names) {
+            if (!name.endsWith(EXTENSION)) continue;
+
+            try {
+                ids.add(Long.parseLong(name.substring(0, name.length() - EXTENSION.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        return ids;
+    }
+
+    public void flushAll() {
+        journals.forEach((id, journal) -> {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    boolean isFsync() {
+        return fsync;
+    }
+
+    int getCompactThreshold() {
+        return compactThreshold;
+    }
+
+    /**
+     * Rewrites a journal as the minimal sequence of records producing the same state.
+     *
+     * @return the number of records in the compacted journal
+     */
+    int compact(File file) throws IOException {
+        State state = replay(file);
+        File temp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        int records = 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            GuildJournal.writeRecord(out, crc, GuildJournal.LOOP, new byte[]{(byte) (state.loop ? 1 : 0)});
+            records++;
+
+            for (int i = 0; i < state.queue.size(); i++) {
+                GuildJournal.writeRecord(out, crc, GuildJournal.ENQUEUE, state.queue.get(i));
+                records++;
+            }
+
+            if (state.current != null) {
+                GuildJournal.writeRecord(out, crc, GuildJournal.PLAY, state.current);
+                GuildJournal.writeRecord(out, crc, GuildJournal.POSITION, ByteBuffer.allocate(Long.BYTES).putLong(state.position).array());
+                records += 2;
+            }
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    byte[] encode(AudioTrack track) {
+        if (track instanceof CachedOpusTrack) track = ((CachedOpusTrack) track).getSource();
+        if (track instanceof LazyTrack) return ((LazyTrack) track).getEncoded();
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            manager.encodeTrack(new MessageOutput(out), track);
+            return out.toByteArray();
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private AudioTrack decode(byte[] encoded) {
+        if (encoded.length == 0) return null;
+
+        try {
+            DecodedTrackHolder holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+            return holder == null ? null : holder.decodedTrack;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private File getFile(long guildId) {
+        return new File(directory, guildId + EXTENSION);
+    }
+
+    /**
+     * Counts the records of a journal by their length prefixes only, without reading or checking them.
+     */
+    private static int count(File file) throws IOException {
+        if (!file.exists()) return 0;
+
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length < 1 || buffer.remaining() < length + Integer.BYTES) break;
+
+                buffer.position(buffer.position() + length + Integer.BYTES);
+                records++;
+            }
+        }
+
+        return records;
+    }
+
+    private static State replay(File file) throws IOException {
+        State state = new State();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+
+            while (buffer.remaining() >= Integer.BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                if (length < 1 || buffer.remaining() < length + Integer.BYTES) break;
+
+                byte type = buffer.get();
+                byte[] payload = new byte[length - 1];
+                buffer.get(payload);
+
+                crc.reset();
+                crc.update(type);
+                crc.update(payload, 0, payload.length);
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    buffer.position(start);
+                    break;
+                }
+
+                state.apply(type, payload);
+                state.validLength = buffer.position();
+            }
+        }
+
+        return state;
+    }
+
+    private static class State {
+        private final IndexedRing<byte[]> queue = new IndexedRing<>();
+        private boolean loop;
+        private byte[] current;
+        private long position;
+        private long validLength;
+
+        private void apply(byte type, byte[] payload) {
+            switch (type) {
+                case GuildJournal.ENQUEUE:
+                    queue.add(payload);
+                    break;
+                case GuildJournal.PLAY:
+                    current = payload;
+                    position = 0;
+                    break;
+                case GuildJournal.NEXT:
+                    if (loop && queue.isEmpty()) break;
+                    current = loop ? queue.rotate() : queue.poll();
+                    position = 0;
+                    break;
+                case GuildJournal.JUMP:
+                    int skipped = ByteBuffer.wrap(payload).getInt();
+                    if (skipped >= 0 && skipped < queue.size()) queue.advance(skipped, loop);
+                    break;
+                case GuildJournal.REMOVE:
+                    int removed = ByteBuffer.wrap(payload).getInt();
+                    if (removed >= 0 && removed < queue.size()) queue.remove(removed);
+                    break;
+                case GuildJournal.MOVE:
+                    ByteBuffer move = ByteBuffer.wrap(payload);
+                    int from = move.getInt();
+                    int to = move.getInt();
+                    if (from >= 0 && from < queue.size() && to >= 0 && to < queue.size()) queue.move(from, to);
+                    break;
+                case GuildJournal.SHUFFLE:
+                    queue.shuffle(new Random(ByteBuffer.wrap(payload).getLong()));
+                    break;
+                case GuildJournal.EMPTY:
+                    queue.clear();
+                    current = null;
+                    break;
+                case GuildJournal.STOP:
+                    current = null;
+                    break;
+                case GuildJournal.LOOP:
+                    loop = payload.length > 0 && payload[0] != 0;
+                    break;
+                case GuildJournal.POSITION:
+                    if (payload.length == Long.BYTES) position = ByteBuffer.wrap(payload).getLong();
+                    break;
+            }
+        }
+    }
+}
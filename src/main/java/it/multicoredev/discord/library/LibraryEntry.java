@@ -0,0 +1,149 @@
+package it.multicoredev.discord.library;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class LibraryEntry {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final String path;
+    private final String folder;
+    private final String title;
+    private final String artist;
+    private final String album;
+    private final long duration;
+    private final long modified;
+    private final long size;
+    private final byte[] track;
+
+    /**
+     * @param folder the directory of the file relative to its library root, with / as separator
+     * @param track  the track as encoded by the audio player manager, so it can be played without probing the file
+     */
+    public LibraryEntry(String path, String folder, String title, String artist, String album, long duration,
+                        long modified, long size, byte[] track) {
+        this.path = path;
+        this.folder = folder;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.duration = duration;
+        this.modified = modified;
+        this.size = size;
+        this.track = track;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[] getTrack() {
+        return track;
+    }
+
+    /**
+     * @return the distinct search terms of the title, artist and album
+     */
+    public List<String> getTerms() {
+        List<String> terms = new ArrayList<>();
+        for (String field : new String[]{title, artist, album}) {
+            for (String term : tokenize(field)) {
+                if (!terms.contains(term)) terms.add(term);
+            }
+        }
+
+        return terms;
+    }
+
+    /**
+     * Search terms are lower case words with accents stripped, so "Beyoncé" is found by "beyonce".
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) return terms;
+
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        int start = -1;
+
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean word = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                terms.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return terms;
+    }
+
+    /**
+     * @return true if every query term is a prefix of one of the entry's terms
+     */
+    boolean matches(List<String> query) {
+        List<String> terms = getTerms();
+
+        outer:
+        for (String wanted : query) {
+            for (String term : terms) {
+                if (term.startsWith(wanted)) continue outer;
+            }
+            return false;
+        }
+
+        return true;
+    }
+}
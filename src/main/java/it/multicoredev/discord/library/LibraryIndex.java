@@ -0,0 +1,366 @@
+package it.multicoredev.discord.library;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class LibraryIndex {
+    private static final int MAGIC = 0x4D434C49;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int TERM_SIZE = 24;
+    private static final Comparator<LibraryEntry> ORDER = Comparator
+            .comparing((LibraryEntry entry) -> entry.getFolder().toLowerCase(Locale.ROOT))
+            .thenComparing(LibraryEntry::getPath);
+
+    private final ByteBuffer buffer;
+    private final int entries;
+    private final int terms;
+    private final int entryTable;
+    private final int termTable;
+
+    private LibraryIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if (buffer.capacity() == 0) {
+            entries = terms = entryTable = termTable = 0;
+            return;
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a library index");
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported library index version " + buffer.getInt(4));
+
+        entries = buffer.getInt(8);
+        terms = buffer.getInt(12);
+        entryTable = (int) buffer.getLong(16);
+        termTable = (int) buffer.getLong(24);
+    }
+
+    public static LibraryIndex empty() {
+        try {
+            return new LibraryIndex(ByteBuffer.allocate(0));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Maps an index file into memory; nothing but the header is read until a lookup touches it.
+     */
+    public static LibraryIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new LibraryIndex(buffer);
+        }
+    }
+
+    /**
+     * Writes the entries and their inverted index to a new file that replaces the old one atomically. Entries
+     * are sorted by folder, so a folder's tracks are contiguous; each term's postings list the entries containing
+     * it, and the term table is sorted bytewise for prefix lookups by binary search.
+     */
+    public static void write(File file, Collection<LibraryEntry> source) throws IOException {
+        List<LibraryEntry> sorted = new ArrayList<>(source);
+        sorted.sort(ORDER);
+
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            for (String term : sorted.get(i).getTerms()) {
+                postings.computeIfAbsent(term, key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<byte[]> termBytes = new ArrayList<>(postings.size());
+        for (String term : postings.keySet()) {
+            termBytes.add(term.getBytes(StandardCharsets.UTF_8));
+        }
+        termBytes.sort(LibraryIndex::compare);
+
+        File temp = new File(file.getPath() + ".tmp");
+        long[] recordOffsets = new long[sorted.size()];
+        long[] termOffsets = new long[termBytes.size()];
+        long[] postingOffsets = new long[termBytes.size()];
+        long entryTableOffset;
+        long termTableOffset;
+
+        // DataOutputStream.size() stops at Integer.MAX_VALUE, the length is counted apart
+        CountingOutputStream written = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try (DataOutputStream out = new DataOutputStream(written)) {
+            out.write(new byte[HEADER_SIZE]);
+
+            for (int i = 0; i < sorted.size(); i++) {
+                recordOffsets[i] = written.position();
+                writeRecord(out, sorted.get(i));
+            }
+
+            for (int i = 0; i < termBytes.size(); i++) {
+                termOffsets[i] = written.position();
+                out.write(termBytes.get(i));
+
+                postingOffsets[i] = written.position();
+                for (int id : postings.get(new String(termBytes.get(i), StandardCharsets.UTF_8))) {
+                    out.writeInt(id);
+                }
+            }
+
+            entryTableOffset = written.position();
+            for (long offset : recordOffsets) {
+                out.writeLong(offset);
+            }
+
+            termTableOffset = written.position();
+            for (int i = 0; i < termBytes.size(); i++) {
+                out.writeLong(termOffsets[i]);
+                out.writeInt(termBytes.get(i).length);
+                out.writeLong(postingOffsets[i]);
+                out.writeInt(postings.get(new String(termBytes.get(i), StandardCharsets.UTF_8)).size());
+            }
+
+            // Throws if the tables took the file past what the int offsets can address
+            written.position();
+        }
+
+        try (RandomAccessFile header = new RandomAccessFile(temp, "rw")) {
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(sorted.size());
+            header.writeInt(termBytes.size());
+            header.writeLong(entryTableOffset);
+            header.writeLong(termTableOffset);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeRecord(DataOutputStream out, LibraryEntry entry) throws IOException {
+        writeString(out, entry.getPath());
+        writeString(out, entry.getFolder());
+        writeString(out, entry.getTitle());
+        writeString(out, entry.getArtist());
+        writeString(out, entry.getAlbum());
+        out.writeLong(entry.getDuration());
+        out.writeLong(entry.getModified());
+        out.writeLong(entry.getSize());
+        out.writeInt(entry.getTrack().length);
+        out.write(entry.getTrack());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    public LibraryEntry get(int id) {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) buffer.getLong(entryTable + id * Long.BYTES));
+
+        String path = readString(record);
+        String folder = readString(record);
+        String title = readString(record);
+        String artist = readString(record);
+        String album = readString(record);
+        long duration = record.getLong();
+        long modified = record.getLong();
+        long size = record.getLong();
+        byte[] track = new byte[record.getInt()];
+        record.get(track);
+
+        return new LibraryEntry(path, folder, title, artist, album, duration, modified, size, track);
+    }
+
+    public void forEach(Consumer<LibraryEntry> consumer) {
+        for (int i = 0; i < entries; i++) {
+            consumer.accept(get(i));
+        }
+    }
+
+    /**
+     * Finds the entries whose title, artist or album contain a word starting with every query term.
+     *
+     * @param skip entries to leave out, checked before they count towards the limit
+     */
+    public List<LibraryEntry> search(List<String> query, int limit, Predicate<LibraryEntry> skip) {
+        List<LibraryEntry> results = new ArrayList<>();
+        if (query.isEmpty() || entries == 0) return results;
+
+        BitSet matches = null;
+        for (String term : query) {
+            BitSet found = lookup(term.getBytes(StandardCharsets.UTF_8));
+            if (matches == null) matches = found;
+            else matches.and(found);
+
+            if (matches.isEmpty()) return results;
+        }
+
+        for (int id = matches.nextSetBit(0); id >= 0 && results.size() < limit; id = matches.nextSetBit(id + 1)) {
+            LibraryEntry entry = get(id);
+            if (!skip.test(entry)) results.add(entry);
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the entries of a folder, matched case insensitively, in path order
+     */
+    public List<LibraryEntry> folder(String folder, Predicate<LibraryEntry> skip) {
+        List<LibraryEntry> results = new ArrayList<>();
+        String wanted = folder.toLowerCase(Locale.ROOT);
+
+        int low = 0;
+        int high = entries;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (folderKey(mid).compareTo(wanted) < 0) low = mid + 1;
+            else high = mid;
+        }
+
+        for (int id = low; id < entries && folderKey(id).equals(wanted); id++) {
+            LibraryEntry entry = get(id);
+            if (!skip.test(entry)) results.add(entry);
+        }
+
+        return results;
+    }
+
+    private String folderKey(int id) {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) buffer.getLong(entryTable + id * Long.BYTES));
+        record.position(record.position() + Integer.BYTES + record.getInt(record.position()));
+        return readString(record).toLowerCase(Locale.ROOT);
+    }
+
+    private BitSet lookup(byte[] prefix) {
+        BitSet found = new BitSet(entries);
+
+        int low = 0;
+        int high = terms;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareTerm(mid, prefix, false) < 0) low = mid + 1;
+            else high = mid;
+        }
+
+        for (int term = low; term < terms && compareTerm(term, prefix, true) == 0; term++) {
+            int slot = termTable + term * TERM_SIZE;
+            int postings = (int) buffer.getLong(slot + 12);
+            int count = buffer.getInt(slot + 20);
+
+            for (int i = 0; i < count; i++) {
+                found.set(buffer.getInt(postings + i * Integer.BYTES));
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Compares a stored term with the given bytes without decoding it. As a prefix comparison, a term that starts
+     * with the bytes compares equal.
+     */
+    private int compareTerm(int term, byte[] bytes, boolean prefix) {
+        int slot = termTable + term * TERM_SIZE;
+        int offset = (int) buffer.getLong(slot);
+        int length = buffer.getInt(slot + 8);
+        int common = Math.min(length, bytes.length);
+
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(offset + i) & 0xff) - (bytes[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+
+        if (prefix && length >= bytes.length) return 0;
+        return length - bytes.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) return difference;
+        }
+
+        return a.length - b.length;
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the bytes written through it; the index is read through int offsets, so it may not grow past 2 GiB.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long written;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+
+        private long position() throws IOException {
+            if (written >= Integer.MAX_VALUE) throw new IOException("Library index exceeds 2 GiB");
+            return written;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package it.multicoredev.discord.library;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import it.multicoredev.discord.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class MusicLibrary {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MusicLibrary.class);
+    private static final Set<String> EXTENSIONS = new HashSet<>(Arrays.asList("mp3", "flac", "ogg", "opus", "m4a", "mp4", "wav", "aac", "webm", "mkv"));
+    public static final int PROBE_CONCURRENCY = 8;
+    private static final long PROBE_TIMEOUT = 30;
+    private static final long SETTLE_MS = 2000;
+    private static final long REBUILD_DELAY = 60;
+    private static final int REBUILD_THRESHOLD = 256;
+
+    private final AudioPlayerManager manager;
+    private final List<Path> roots;
+    private final File indexFile;
+    private final Map<Path, Long> settling = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private volatile Snapshot snapshot = new Snapshot(LibraryIndex.empty(), Collections.emptyMap(), Collections.emptySet());
+    private volatile boolean ready;
+    private WatchService watcher;
+    private long rebuildAt;
+
+    /**
+     * Tracks are probed once, when first seen, and stored encoded in a memory-mapped index together with their
+     * search terms. Searches and folder lookups read the index directly; changes picked up by the watcher are kept
+     * in a small overlay that is merged into a rebuilt index once it grows or settles.
+     * <p>
+     * Scanning, probing and rebuilding all happen on the library's own thread, which is also the only one replacing
+     * the snapshot; searches read whichever snapshot is current without locking.
+     */
+    public MusicLibrary(AudioPlayerManager manager, Collection<File> roots, File indexFile) {
+        this.manager = manager;
+        this.roots = roots.stream().map(root -> root.toPath().toAbsolutePath().normalize()).collect(Collectors.toList());
+        this.indexFile = indexFile;
+    }
+
+    public void start() {
+        if (indexFile.exists()) {
+            try {
+                snapshot = new Snapshot(LibraryIndex.open(indexFile), Collections.emptyMap(), Collections.emptySet());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Thread thread = Utils.threadFactory("MusicCore-Library").newThread(() -> {
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                for (Path root : roots) {
+                    register(root);
+                }
+
+                scan();
+                ready = true;
+                watch();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * @return false while the first scan is still running; the index from the previous run is searchable meanwhile
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current.base.size() + current.added.size();
+    }
+
+    public List<LibraryEntry> search(String query, int limit) {
+        List<String> terms = LibraryEntry.tokenize(query);
+        Snapshot current = snapshot;
+        List<LibraryEntry> results = current.base.search(terms, limit, current::isShadowed);
+
+        for (LibraryEntry entry : current.added.values()) {
+            if (results.size() >= limit) break;
+            if (!terms.isEmpty() && entry.matches(terms)) results.add(entry);
+        }
+
+        return results;
+    }
+
+    public List<LibraryEntry> folder(String folder) {
+        String wanted = folder.replace('\\', '/');
+        while (wanted.endsWith("/")) wanted = wanted.substring(0, wanted.length() - 1);
+
+        Snapshot current = snapshot;
+        List<LibraryEntry> results = current.base.folder(wanted, current::isShadowed);
+
+        for (LibraryEntry entry : current.added.values()) {
+            if (entry.getFolder().equalsIgnoreCase(wanted)) results.add(entry);
+        }
+
+        results.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+        return results;
+    }
+
+    /**
+     * @return a playable track decoded from the index, or null if the entry cannot be decoded
+     */
+    public AudioTrack createTrack(LibraryEntry entry) {
+        try {
+            DecodedTrackHolder holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(entry.getTrack())));
+            return holder == null ? null : holder.decodedTrack;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void scan() throws IOException {
+        long start = System.nanoTime();
+        Map<String, LibraryEntry> known = new HashMap<>();
+        Snapshot current = snapshot;
+        current.base.forEach(entry -> known.put(entry.getPath(), entry));
+        known.putAll(current.added);
+
+        List<LibraryEntry> entries = new ArrayList<>();
+        List<Path> changed = new ArrayList<>();
+
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                LOGGER.warn("Library directory {} does not exist.", root);
+                continue;
+            }
+
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(MusicLibrary::isAudioFile).forEach(path -> {
+                    LibraryEntry entry = known.get(path.toString());
+                    File file = path.toFile();
+
+                    if (entry != null && entry.getModified() == file.lastModified() && entry.getSize() == file.length()) {
+                        entries.add(entry);
+                    } else {
+                        changed.add(path);
+                    }
+                });
+            }
+        }
+
+        entries.addAll(probe(changed));
+
+        LibraryIndex.write(indexFile, entries);
+        snapshot = new Snapshot(LibraryIndex.open(indexFile), Collections.emptyMap(), Collections.emptySet());
+
+        LOGGER.info("Library indexed {} tracks ({} probed) in {} ms.", entries.size(), changed.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Waits for changes at most SETTLE_MS at a time, so settled files are probed and due rebuilds run in between.
+     */
+    private void watch() {
+        long nextProbe = 0;
+
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            if (key != null) {
+                Path directory = watched.get(key);
+                if (directory != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                        onEvent(event.kind(), directory.resolve((Path) event.context()));
+                    }
+                }
+
+                if (!key.reset()) watched.remove(key);
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextProbe) {
+                probeSettled();
+                nextProbe = now + SETTLE_MS;
+            }
+
+            if (rebuildAt > 0 && System.currentTimeMillis() >= rebuildAt) rebuild();
+        }
+    }
+
+    private void onEvent(WatchEvent.Kind<?> kind, Path path) {
+        try {
+            if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                removeAll(path);
+            } else if (Files.isDirectory(path)) {
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path);
+
+                    try (Stream<Path> files = Files.walk(path)) {
+                        files.filter(MusicLibrary::isAudioFile).forEach(file -> settling.put(file, System.currentTimeMillis()));
+                    }
+                }
+            } else if (isAudioFile(path)) {
+                // Files being copied fire many events, they are probed once they stop changing
+                settling.put(path, System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        try (Stream<Path> directories = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+                WatchKey key = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watched.put(key, path);
+            }
+        }
+    }
+
+    private void probeSettled() {
+        if (!ready || settling.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        List<Path> due = new ArrayList<>();
+        Iterator<Map.Entry<Path, Long>> iterator = settling.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (now - entry.getValue() < SETTLE_MS) continue;
+
+            iterator.remove();
+            due.add(entry.getKey());
+        }
+
+        for (LibraryEntry entry : probe(due)) {
+            put(entry);
+        }
+    }
+
+    private void put(LibraryEntry entry) {
+        Snapshot current = snapshot;
+        Map<String, LibraryEntry> added = new HashMap<>(current.added);
+        added.put(entry.getPath(), entry);
+
+        Set<String> removed = new HashSet<>(current.removed);
+        removed.add(entry.getPath());
+
+        snapshot = new Snapshot(current.base, added, removed);
+        scheduleRebuild();
+    }
+
+    /**
+     * Removes a deleted file, or every file under a deleted directory.
+     */
+    private void removeAll(Path path) {
+        String prefix = path.toString();
+        String directory = prefix + File.separator;
+        Snapshot current = snapshot;
+
+        Map<String, LibraryEntry> added = new HashMap<>(current.added);
+        added.keySet().removeIf(key -> key.equals(prefix) || key.startsWith(directory));
+
+        Set<String> removed = new HashSet<>(current.removed);
+        removed.add(prefix);
+        if (!hasAudioExtension(path)) {
+            current.base.forEach(entry -> {
+                if (entry.getPath().startsWith(directory)) removed.add(entry.getPath());
+            });
+        }
+
+        snapshot = new Snapshot(current.base, added, removed);
+        scheduleRebuild();
+    }
+
+    private void scheduleRebuild() {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+
+        // Large batches, like a new album being copied in, are merged right away
+        if (current.added.size() + current.removed.size() >= REBUILD_THRESHOLD) {
+            rebuildAt = now;
+        } else if (rebuildAt == 0) {
+            rebuildAt = now + TimeUnit.SECONDS.toMillis(REBUILD_DELAY);
+        }
+    }
+
+    private void rebuild() {
+        rebuildAt = 0;
+        Snapshot current = snapshot;
+        if (current.added.isEmpty() && current.removed.isEmpty()) return;
+
+        List<LibraryEntry> entries = new ArrayList<>(current.base.size() + current.added.size());
+        current.base.forEach(entry -> {
+            if (!current.isShadowed(entry)) entries.add(entry);
+        });
+        entries.addAll(current.added.values());
+
+        try {
+            LibraryIndex.write(indexFile, entries);
+            snapshot = new Snapshot(LibraryIndex.open(indexFile), Collections.emptyMap(), Collections.emptySet());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Probes the files through the player manager's local source, a few at a time.
+     */
+    private List<LibraryEntry> probe(List<Path> paths) {
+        Queue<LibraryEntry> results = new ConcurrentLinkedQueue<>();
+        Deque<Future<Void>> inFlight = new ArrayDeque<>();
+
+        for (Path path : paths) {
+            while (inFlight.size() >= PROBE_CONCURRENCY) {
+                await(inFlight.poll());
+            }
+
+            File file = path.toFile();
+            long modified = file.lastModified();
+            long size = file.length();
+
+            inFlight.add(manager.loadItem(path.toString(), new AudioLoadResultHandler() {
+                @Override
+                public void trackLoaded(AudioTrack track) {
+                    LibraryEntry entry = toEntry(path, track, modified, size);
+                    if (entry.getTrack().length > 0) results.add(entry);
+                }
+
+                @Override
+                public void playlistLoaded(AudioPlaylist playlist) {
+                }
+
+                @Override
+                public void noMatches() {
+                }
+
+                @Override
+                public void loadFailed(FriendlyException exception) {
+                    LOGGER.debug("Cannot read library file {}: {}", path, exception.getMessage());
+                }
+            }));
+        }
+
+        while (!inFlight.isEmpty()) {
+            await(inFlight.poll());
+        }
+
+        return new ArrayList<>(results);
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get(PROBE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Tags the local source could not read fall back to the usual Artist/Album/Track layout of music folders.
+     */
+    private LibraryEntry toEntry(Path path, AudioTrack track, long modified, long size) {
+        Path parent = path.getParent();
+        Path grandParent = parent != null ? parent.getParent() : null;
+        String fileName = path.getFileName().toString();
+
+        String title = track.getInfo().title;
+        if (title == null || title.isEmpty() || title.equals("Unknown title")) {
+            int dot = fileName.lastIndexOf('.');
+            title = dot > 0 ? fileName.substring(0, dot) : fileName;
+        }
+
+        String artist = track.getInfo().author;
+        if ((artist == null || artist.isEmpty() || artist.equals("Unknown artist")) && grandParent != null && !roots.contains(parent)) {
+            artist = grandParent.getFileName().toString();
+        }
+
+        String album = parent != null && !roots.contains(parent) ? parent.getFileName().toString() : "";
+
+        return new LibraryEntry(path.toString(), folderOf(path), title, artist == null ? "" : artist, album,
+                track.getDuration(), modified, size, encode(track));
+    }
+
+    /**
+     * @return the file's directory relative to its root, prefixed with the root's name
+     */
+    private String folderOf(Path path) {
+        for (Path root : roots) {
+            if (!path.startsWith(root)) continue;
+
+            Path relative = root.relativize(path.getParent());
+            String name = root.getFileName() != null ? root.getFileName().toString() : root.toString();
+            return relative.toString().isEmpty() ? name : name + "/" + relative.toString().replace(File.separatorChar, '/');
+        }
+
+        return "";
+    }
+
+    private byte[] encode(AudioTrack track) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            manager.encodeTrack(new MessageOutput(out), track);
+            return out.toByteArray();
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private static boolean isAudioFile(Path path) {
+        return hasAudioExtension(path) && Files.isRegularFile(path);
+    }
+
+    private static boolean hasAudioExtension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static final class Snapshot {
+        private final LibraryIndex base;
+        private final Map<String, LibraryEntry> added;
+        private final Set<String> removed;
+
+        private Snapshot(LibraryIndex base, Map<String, LibraryEntry> added, Set<String> removed) {
+            this.base = base;
+            this.added = added;
+            this.removed = removed;
+        }
+
+        /**
+         * @return true if the indexed entry was deleted or replaced since the index was written
+         */
+        private boolean isShadowed(LibraryEntry entry) {
+            return removed.contains(entry.getPath());
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package it.multicoredev.discord.messaging;
+
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.discord.metrics.MetricsCollector;
+import it.multicoredev.discord.metrics.MetricsWriter;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class MessageCoalescer implements MetricsCollector {
+    public static final int MAX_LENGTH = 2000;
+
+    private final ScheduledExecutorService scheduler;
+    private final Sender sender;
+    private final long windowMs;
+    private final int bucketSize;
+    private final long bucketPeriodMs;
+    private final LongConcurrentMap<ChannelQueue> channels = new LongConcurrentMap<>();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+
+    public MessageCoalescer(ScheduledExecutorService scheduler, Sender sender, long windowMs, int bucketSize, long bucketPeriodMs) {
+        this.scheduler = scheduler;
+        this.sender = sender;
+        this.windowMs = Math.max(0, windowMs);
+        this.bucketSize = Math.max(1, bucketSize);
+        this.bucketPeriodMs = Math.max(0, bucketPeriodMs);
+    }
+
+    public MessageCoalescer(ScheduledExecutorService scheduler, long windowMs, int bucketSize, long bucketPeriodMs) {
+        this(scheduler, (channel, content) -> channel.sendMessage(content).queue(), windowMs, bucketSize, bucketPeriodMs);
+    }
+
+    public void submit(TextChannel channel, String content) {
+        submit(channel, content, null);
+    }
+
+    /**
+     * Queues a message for the channel. When a key is given, any message still queued for the same channel
+     * with the same key is dropped, so only the latest status of that kind is sent.
+     */
+    public void submit(TextChannel channel, String content, String key) {
+        if (content == null || content.isEmpty()) return;
+        enqueue(channel, new Pending(content, key, null, null));
+    }
+
+    /**
+     * Queues a message that is sent on its own, never merged with others, and hands the sent message to the
+     * callback, or null when sending failed.
+     */
+    public void send(TextChannel channel, String content, Consumer<Message> callback) {
+        enqueue(channel, new Pending(content, null, null, callback));
+    }
+
+    /**
+     * Queues an edit of a message in the channel. An edit of the same message still waiting is replaced, so only
+     * the latest content is sent.
+     */
+    public void edit(TextChannel channel, Message message, String content) {
+        enqueue(channel, new Pending(content, "edit:" + message.getIdLong(), message, null));
+    }
+
+    private void enqueue(TextChannel channel, Pending entry) {
+        String key = entry.key;
+        submitted.increment();
+
+        while (true) {
+            ChannelQueue queue = channels.computeIfAbsent(channel.getIdLong(), id -> new ChannelQueue(channel));
+
+            synchronized (queue) {
+                if (queue.closed) {
+                    channels.remove(channel.getIdLong(), queue);
+                    continue;
+                }
+
+                queue.channel = channel;
+
+                if (key != null) {
+                    Iterator<Pending> iterator = queue.pending.iterator();
+                    while (iterator.hasNext()) {
+                        if (key.equals(iterator.next().key)) {
+                            iterator.remove();
+                            superseded.increment();
+                        }
+                    }
+                }
+
+                queue.pending.add(entry);
+
+                if (!queue.scheduled) {
+                    queue.scheduled = true;
+                    scheduler.schedule(() -> flush(queue), windowMs, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the queues of the guild's channels that have nothing left to send.
+     */
+    public void forget(long guildId) {
+        channels.forEach((id, queue) -> {
+            synchronized (queue) {
+                if (queue.channel.getGuild().getIdLong() != guildId || queue.scheduled || !queue.pending.isEmpty()) return;
+                // Still inside its rate limit window, a new queue would not know about the recent sends
+                if (queue.bucketWait(System.currentTimeMillis()) > 0) return;
+
+                queue.closed = true;
+                channels.remove(id, queue);
+            }
+        });
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getSuperseded() {
+        return superseded.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * REST calls avoided by coalescing and superseding compared to sending every message on its own.
+     */
+    public long getSaved() {
+        return submitted.sum() - sent.sum();
+    }
+
+    @Override
+    public void collect(MetricsWriter writer) {
+        writer.family("musiccore_messages_submitted_total", "counter", "Messages and edits handed to the coalescer.");
+        writer.sample("musiccore_messages_submitted_total", getSubmitted());
+        writer.family("musiccore_messages_superseded_total", "counter", "Queued messages dropped because a newer one of the same kind replaced them.");
+        writer.sample("musiccore_messages_superseded_total", getSuperseded());
+        writer.family("musiccore_messages_sent_total", "counter", "REST calls made to send or edit messages.");
+        writer.sample("musiccore_messages_sent_total", getSent());
+        writer.family("musiccore_messages_saved_total", "counter", "REST calls avoided by coalescing and superseding.");
+        writer.sample("musiccore_messages_saved_total", getSaved());
+    }
+
+    private void flush(ChannelQueue queue) {
+        TextChannel channel;
+        Pending entry;
+
+        synchronized (queue) {
+            queue.scheduled = false;
+            if (queue.pending.isEmpty()) return;
+
+            long now = System.currentTimeMillis();
+            long wait = queue.bucketWait(now);
+
+            if (wait > 0) {
+                queue.scheduled = true;
+                scheduler.schedule(() -> flush(queue), wait, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            channel = queue.channel;
+            entry = queue.drain();
+            queue.recordSend(now);
+
+            if (!queue.pending.isEmpty()) {
+                queue.scheduled = true;
+                scheduler.schedule(() -> flush(queue), queue.bucketWait(now), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        sent.increment();
+
+        try {
+            if (entry.target != null) {
+                sender.edit(entry.target, entry.content);
+            } else if (entry.callback != null) {
+                sender.send(channel, entry.content, entry.callback);
+            } else {
+                sender.send(channel, entry.content);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Sender {
+        void send(TextChannel channel, String content);
+
+        default void send(TextChannel channel, String content, Consumer<Message> callback) {
+            channel.sendMessage(content).queue(callback, error -> callback.accept(null));
+        }
+
+        default void edit(Message message, String content) {
+            message.editMessage(content).queue();
+        }
+    }
+
+    private static class Pending {
+        private String content;
+        private final String key;
+        private final Message target;
+        private final Consumer<Message> callback;
+
+        private Pending(String content, String key, Message target, Consumer<Message> callback) {
+            this.content = content;
+            this.key = key;
+            this.target = target;
+            this.callback = callback;
+        }
+
+        /**
+         * Edits and messages whose result is wanted back are sent alone.
+         */
+        private boolean isAlone() {
+            return target != null || callback != null;
+        }
+    }
+
+    private class ChannelQueue {
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private final long[] sendTimes = new long[bucketSize];
+        private int oldestSend;
+        private boolean scheduled;
+        private boolean closed;
+        private TextChannel channel;
+
+        private ChannelQueue(TextChannel channel) {
+            this.channel = channel;
+        }
+
+        private long bucketWait(long now) {
+            return Math.max(0, sendTimes[oldestSend] + bucketPeriodMs - now);
+        }
+
+        private void recordSend(long now) {
+            sendTimes[oldestSend] = now;
+            oldestSend = (oldestSend + 1) % sendTimes.length;
+        }
+
+        private Pending drain() {
+            Pending first = pending.peek();
+            if (first.isAlone()) return pending.poll();
+
+            if (first.content.length() > MAX_LENGTH) {
+                int cut = first.content.lastIndexOf('\n', MAX_LENGTH);
+                if (cut <= 0) cut = MAX_LENGTH;
+
+                String head = first.content.substring(0, cut);
+                first.content = first.content.substring(first.content.charAt(cut) == '\n' ? cut + 1 : cut);
+                return new Pending(head, null, null, null);
+            }
+
+            StringBuilder builder = new StringBuilder(MAX_LENGTH);
+
+            while (!pending.isEmpty() && !pending.peek().isAlone()) {
+                String content = pending.peek().content;
+                int length = builder.length() == 0 ? content.length() : builder.length() + 1 + content.length();
+                if (length > MAX_LENGTH) break;
+
+                if (builder.length() > 0) builder.append('\n');
+                builder.append(content);
+                pending.poll();
+            }
+
+            return new Pending(builder.toString(), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package it.multicoredev.discord.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class MessageTemplate {
+    private static final String MARKDOWN = "\\*_~`|>";
+    private static final int ESCAPE_SLACK = 16;
+
+    private final String source;
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private MessageTemplate(String source, String[] literals, String[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+
+        this.literalLength = length;
+    }
+
+    /**
+     * Splits the message into literal segments and {placeholder} slots. Braces that do not enclose a simple
+     * name are kept as literal text.
+     */
+    public static MessageTemplate compile(String message) {
+        if (message == null) message = "";
+
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int start = 0;
+        int open = message.indexOf('{');
+
+        while (open >= 0) {
+            int close = placeholderEnd(message, open);
+
+            if (close < 0) {
+                open = message.indexOf('{', open + 1);
+                continue;
+            }
+
+            literals.add(message.substring(start, open));
+            slots.add(message.substring(open, close + 1).intern());
+            start = close + 1;
+            open = message.indexOf('{', start);
+        }
+
+        literals.add(message.substring(start));
+        return new MessageTemplate(message, literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    private static int placeholderEnd(String message, int open) {
+        for (int i = open + 1; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '}') return i > open + 1 ? i : -1;
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') return -1;
+        }
+
+        return -1;
+    }
+
+    public String render() {
+        return slots.length == 0 ? literals[0] : render(new String[0], new String[0]);
+    }
+
+    public String render(String target, String value) {
+        return render(new String[]{target}, new String[]{value});
+    }
+
+    /**
+     * Renders the template in a single pass. Values are escaped so track titles and other user supplied text
+     * cannot inject Discord markdown; placeholders without a matching target are left as they are.
+     */
+    public String render(String[] targets, String[] values) {
+        if (slots.length == 0) return literals[0];
+
+        int capacity = literalLength + ESCAPE_SLACK;
+        for (String value : values) {
+            if (value != null) capacity += value.length();
+        }
+
+        StringBuilder builder = new StringBuilder(capacity);
+
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+
+            int index = indexOf(targets, slots[i]);
+            if (index < 0) {
+                builder.append(slots[i]);
+            } else {
+                escape(builder, values[index]);
+            }
+        }
+
+        return builder.append(literals[slots.length]).toString();
+    }
+
+    public static void escape(StringBuilder builder, String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (MARKDOWN.indexOf(c) >= 0) builder.append('\\');
+            builder.append(c);
+        }
+    }
+
+    public static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value == null ? 4 : value.length() + ESCAPE_SLACK);
+        escape(builder, value);
+        return builder.toString();
+    }
+
+    private static int indexOf(String[] targets, String slot) {
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] == slot) return i;
+        }
+
+        for (int i = 0; i < targets.length; i++) {
+            if (slot.equals(targets[i])) return i;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
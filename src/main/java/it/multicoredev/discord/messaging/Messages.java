@@ -0,0 +1,65 @@
+package it.multicoredev.discord.messaging;
+
+import it.multicoredev.mclib.yaml.Configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class Messages {
+    private static volatile Messages current = new Messages(Collections.emptyMap());
+
+    private final Map<String, MessageTemplate> templates;
+
+    private Messages(Map<String, MessageTemplate> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * Compiles every entry of the messages section.
+     */
+    public static Messages compile(Configuration config) {
+        Map<String, MessageTemplate> templates = new HashMap<>();
+        Configuration section = config.getSection("messages");
+
+        if (section != null) {
+            for (String key : section.getKeys()) {
+                templates.put(key, MessageTemplate.compile(section.getString(key)));
+            }
+        }
+
+        return new Messages(templates);
+    }
+
+    /**
+     * Recompiles the templates and swaps them in; renders already in progress finish with the previous set.
+     */
+    public static void load(Configuration config) {
+        current = compile(config);
+    }
+
+    public static MessageTemplate get(String key) {
+        MessageTemplate template = current.templates.get(key);
+        return template != null ? template : MessageTemplate.compile("messages." + key);
+    }
+}
@@ -0,0 +1,94 @@
+package it.multicoredev.discord.messaging;
+
+import it.multicoredev.discord.Utils;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.TextChannel;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ProgressMessage {
+    private final TextChannel channel;
+    private final long intervalNanos;
+    private Message message;
+    private boolean sending;
+    private String pending;
+    private long lastEdit;
+
+    /**
+     * A single message that is sent once and then edited in place, at most once per interval.
+     * The final update is always shown.
+     */
+    public ProgressMessage(TextChannel channel, long intervalMs) {
+        this.channel = channel;
+        this.intervalNanos = intervalMs * 1_000_000L;
+    }
+
+    public void update(String content) {
+        update(content, false);
+    }
+
+    public void finish(String content) {
+        update(content, true);
+    }
+
+    private synchronized void update(String content, boolean last) {
+        if (message == null) {
+            if (sending) {
+                // Shown by the edit that follows the send
+                pending = content;
+                return;
+            }
+
+            sending = true;
+            lastEdit = System.nanoTime();
+            Utils.sendMessage(channel, content, this::sent);
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (!last && now - lastEdit < intervalNanos) {
+            pending = content;
+            return;
+        }
+
+        pending = null;
+        lastEdit = now;
+        Utils.editMessage(channel, message, content);
+    }
+
+    private synchronized void sent(Message message) {
+        this.message = message;
+        sending = false;
+
+        String content = pending;
+        pending = null;
+
+        if (content != null) {
+            if (message == null) {
+                // The first send failed, try again with the latest content
+                update(content, true);
+            } else {
+                lastEdit = System.nanoTime();
+                Utils.editMessage(channel, message, content);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package it.multicoredev.discord.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class MetricsRegistry {
+    private final List<MetricsCollector> collectors = new CopyOnWriteArrayList<>();
+
+    public void register(MetricsCollector collector) {
+        collectors.add(collector);
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        collect(new MetricsWriter() {
+            @Override
+            public void family(String name, String type, String help) {
+                builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+                builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            }
+
+            @Override
+            public void sample(String name, double value, String... labels) {
+                builder.append(key(name, labels)).append(' ').append(format(value)).append('\n');
+            }
+        });
+
+        return builder.toString();
+    }
+
+    /**
+     * @return every sample keyed by its name and labels, as it appears in the Prometheus output
+     */
+    public Map<String, Double> snapshot() {
+        Map<String, Double> snapshot = new LinkedHashMap<>();
+        collect(new MetricsWriter() {
+            @Override
+            public void family(String name, String type, String help) {
+            }
+
+            @Override
+            public void sample(String name, double value, String... labels) {
+                snapshot.put(key(name, labels), value);
+            }
+        });
+
+        return snapshot;
+    }
+
+    private void collect(MetricsWriter writer) {
+        for (MetricsCollector collector : collectors) {
+            try {
+                collector.collect(writer);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) return name;
+
+        StringBuilder builder = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) builder.append(',');
+            builder.append(labels[i]).append("=\"");
+
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') builder.append('\\').append(c);
+                else if (c == '\n') builder.append("\\n");
+                else builder.append(c);
+            }
+
+            builder.append('"');
+        }
+
+        return builder.append('}').toString();
+    }
+
+    private static String format(double value) {
+        if (value == (long) value) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
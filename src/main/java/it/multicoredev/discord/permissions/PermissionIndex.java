@@ -0,0 +1,254 @@
+package it.multicoredev.discord.permissions;
+
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.mclib.yaml.Configuration;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberLeaveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.role.RoleCreateEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdateNameEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PermissionIndex extends ListenerAdapter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PermissionIndex.class);
+
+    private final LongConcurrentMap<GuildPermissions> guilds = new LongConcurrentMap<>();
+    private final LongConcurrentMap<AtomicLong> generations = new LongConcurrentMap<>();
+    private volatile Definitions definitions;
+
+    public PermissionIndex(Configuration config) {
+        reload(config);
+    }
+
+    /**
+     * Compiles the {@code permissions.*} section of the given configuration. Guild indexes built from the previous
+     * definitions are rebuilt lazily on their next check.
+     */
+    public synchronized void reload(Configuration config) {
+        definitions = new Definitions(config);
+    }
+
+    public boolean hasPermission(Member member, String permission) {
+        Definitions definitions = this.definitions;
+        Integer bit = definitions.bits.get(permission);
+        if (bit == null) {
+            definitions.missing(permission);
+            return false;
+        }
+
+        long mask = 1L << bit;
+        if ((definitions.publicMask & mask) != 0) return true;
+
+        Guild guild = member.getGuild();
+        GuildPermissions permissions = guilds.get(guild.getIdLong());
+
+        if (permissions == null || permissions.definitions != definitions) {
+            AtomicLong generation = generations.computeIfAbsent(guild.getIdLong(), id -> new AtomicLong());
+            long seen = generation.get();
+
+            permissions = new GuildPermissions(definitions, guild);
+            guilds.put(guild.getIdLong(), permissions);
+            // Built from roles an event changed meanwhile: still good for this check, but not kept
+            if (generation.get() != seen) guilds.remove(guild.getIdLong(), permissions);
+        }
+
+        return (permissions.getMemberMask(member) & mask) != 0;
+    }
+
+    @Override
+    public void onRoleCreate(RoleCreateEvent event) {
+        forgetGuild(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        forgetGuild(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onRoleUpdateName(RoleUpdateNameEvent event) {
+        forgetGuild(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event) {
+        forget(event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event) {
+        forgetMember(event.getGuild().getIdLong(), event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event) {
+        forgetMember(event.getGuild().getIdLong(), event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberLeave(GuildMemberLeaveEvent event) {
+        forgetMember(event.getGuild().getIdLong(), event.getMember().getIdLong());
+    }
+
+    /**
+     * Drops everything kept for the guild; its index is built again on its next check.
+     */
+    public void forget(long guildId) {
+        AtomicLong generation = generations.get(guildId);
+        forgetGuild(guildId);
+        if (generation != null) generations.remove(guildId, generation);
+    }
+
+    /**
+     * The generation is moved before the entry is removed, so an index being built from the old roles sees the
+     * change after its put and drops what it put.
+     */
+    private void forgetGuild(long guildId) {
+        generations.computeIfAbsent(guildId, id -> new AtomicLong()).incrementAndGet();
+        guilds.remove(guildId);
+    }
+
+    private void forgetMember(long guildId, long memberId) {
+        GuildPermissions permissions = guilds.get(guildId);
+        if (permissions == null) return;
+
+        permissions.generation.incrementAndGet();
+        permissions.members.remove(memberId);
+    }
+
+    private static class Definitions {
+        private final Map<String, Integer> bits = new HashMap<>();
+        private final Map<String, Long> roleNames = new HashMap<>();
+        private final Set<String> unindexed = new HashSet<>();
+        private final Set<String> reported = ConcurrentHashMap.newKeySet();
+        private long publicMask;
+
+        private Definitions(Configuration config) {
+            int bit = 0;
+
+            for (String permission : config.getSection("permissions").getKeys()) {
+                if (bit == Long.SIZE) {
+                    unindexed.add(permission);
+                    continue;
+                }
+
+                long mask = 1L << bit;
+                bits.put(permission, bit++);
+
+                List<String> roles = config.getStringList("permissions." + permission);
+                if (roles == null || roles.isEmpty()) {
+                    publicMask |= mask;
+                    continue;
+                }
+
+                for (String role : roles) {
+                    if (role.isEmpty()) {
+                        publicMask |= mask;
+                        continue;
+                    }
+
+                    roleNames.merge(role.toLowerCase(), mask, (a, b) -> a | b);
+                }
+            }
+
+            // Masks are a single long; denying the rest is safer than letting everyone use them
+            if (!unindexed.isEmpty()) {
+                LOGGER.error("Only {} permissions are supported, nobody can use {} until some are removed from config.yml.",
+                        Long.SIZE, unindexed);
+            }
+        }
+
+        /**
+         * Commands without a {@code permissions.<name>} entry are denied, so a config.yml written before a command
+         * existed does not open it to everyone. An empty list is how a command is made public.
+         */
+        private void missing(String permission) {
+            if (unindexed.contains(permission) || !reported.add(permission)) return;
+            LOGGER.error("No permissions.{} entry in config.yml, nobody can use it until one is added ([] allows everyone).", permission);
+        }
+    }
+
+    private static class GuildPermissions {
+        private final Definitions definitions;
+        private final long[] roleIds;
+        private final long[] roleMasks;
+        private final LongConcurrentMap<Long> members = new LongConcurrentMap<>();
+        private final AtomicLong generation = new AtomicLong();
+
+        private GuildPermissions(Definitions definitions, Guild guild) {
+            this.definitions = definitions;
+
+            List<Role> roles = guild.getRoles();
+            long[][] entries = new long[roles.size()][];
+            int count = 0;
+
+            for (Role role : roles) {
+                Long mask = definitions.roleNames.get(role.getName().toLowerCase());
+                if (mask != null) entries[count++] = new long[]{role.getIdLong(), mask};
+            }
+
+            Arrays.sort(entries, 0, count, (a, b) -> Long.compare(a[0], b[0]));
+            roleIds = new long[count];
+            roleMasks = new long[count];
+
+            for (int i = 0; i < count; i++) {
+                roleIds[i] = entries[i][0];
+                roleMasks[i] = entries[i][1];
+            }
+        }
+
+        private long getMemberMask(Member member) {
+            Long cached = members.get(member.getIdLong());
+            if (cached != null) return cached;
+
+            long seen = generation.get();
+            long mask = 0;
+            for (Role role : member.getRoles()) {
+                int index = Arrays.binarySearch(roleIds, role.getIdLong());
+                if (index >= 0) mask |= roleMasks[index];
+            }
+
+            Long entry = mask;
+            members.put(member.getIdLong(), entry);
+            // A member whose roles changed while the mask was computed is read again on the next check
+            if (generation.get() != seen) members.remove(member.getIdLong(), entry);
+            return mask;
+        }
+    }
+}
@@ -2,9 +2,10 @@ package it.multicoredev.discord.player;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
-import net.dv8tion.jda.api.audio.AudioSendHandler;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * Copyright © 2020 by Lorenzo Magni
@@ -26,12 +27,16 @@ import java.nio.ByteBuffer;
  * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class AudioPlayerSendHandler implements AudioSendHandler {
-    private final AudioPlayer audioPlayer;
+public class AudioPlayerSendHandler implements GuildAudioSendHandler {
+    private final Supplier<AudioPlayer> audioPlayer;
     private final ByteBuffer buffer;
     private final MutableAudioFrame frame;
+    private final LongAdder provided = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private volatile Runnable nextFrameCallback;
+    private volatile FrameRecorder recorder;
 
-    public AudioPlayerSendHandler(AudioPlayer audioPlayer) {
+    public AudioPlayerSendHandler(Supplier<AudioPlayer> audioPlayer) {
         this.audioPlayer = audioPlayer;
         this.buffer = ByteBuffer.allocate(1024);
         this.frame = new MutableAudioFrame();
@@ -40,7 +45,30 @@ public class AudioPlayerSendHandler implements AudioSendHandler {
 
     @Override
     public boolean canProvide() {
-        return audioPlayer.provide(frame);
+        AudioPlayer player = audioPlayer.get();
+        if (!player.provide(frame)) {
+            // A gapless handoff swaps the active player from inside provide(); take its first frame on the same tick
+            AudioPlayer next = audioPlayer.get();
+            if (next == player || !next.provide(frame)) {
+                if (next.getPlayingTrack() != null && !next.isPaused()) missed.increment();
+                return false;
+            }
+
+            player = next;
+        }
+
+        provided.increment();
+
+        FrameRecorder recorder = this.recorder;
+        if (recorder != null) recorder.record(player.getPlayingTrack(), frame);
+
+        Runnable callback = nextFrameCallback;
+        if (callback != null) {
+            nextFrameCallback = null;
+            callback.run();
+        }
+
+        return true;
     }
 
     @Override
@@ -49,6 +77,39 @@ public class AudioPlayerSendHandler implements AudioSendHandler {
         return buffer;
     }
 
+    @Override
+    public void onNextFrame(Runnable callback) {
+        nextFrameCallback = callback;
+    }
+
+    @Override
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public long getProvidedFrames() {
+        return provided.sum();
+    }
+
+    @Override
+    public long getMissedFrames() {
+        return missed.sum();
+    }
+
+    @Override
+    public long getUnderruns() {
+        return missed.sum();
+    }
+
+    /**
+     * Frames are pulled straight from the player on the send tick, nothing is queued that could be dropped.
+     */
+    @Override
+    public long getOverruns() {
+        return 0;
+    }
+
     @Override
     public boolean isOpus() {
         return true;
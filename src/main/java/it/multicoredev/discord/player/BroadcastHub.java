@@ -0,0 +1,233 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BroadcastHub {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BroadcastHub.class);
+
+    private final AudioPlayerManager manager;
+    private final LoadPipeline pipeline;
+    private final ScheduledExecutorService playback;
+    private final ScheduledExecutorService executor;
+    private final int chunkSize;
+    private final int capacity;
+    private final int lead;
+    private final long intervalMs;
+    private final Map<String, String> sources = new LinkedHashMap<>();
+    private final Map<String, Long> keys = new HashMap<>();
+    private final Map<String, BroadcastStream> streams = new ConcurrentHashMap<>();
+    private final LongConcurrentMap<BroadcastSendHandler> subscriptions = new LongConcurrentMap<>();
+    private ScheduledExecutorService pump;
+
+    /**
+     * Plays named streams once for every guild tuned in to them. A stream is loaded when its first guild tunes in and
+     * released when its last one leaves, so the decoding work follows the number of streams being listened to, not
+     * the number of guilds. Guilds that want their own volume have to play the stream on their own player.
+     *
+     * @param playback   runs the streams' track advances
+     * @param executor   runs the streams' playlist chunks
+     * @param capacity   frames each stream's ring holds
+     * @param lead       frames decoded ahead of the furthest guild
+     * @param intervalMs period of the broadcast thread filling the rings
+     */
+    public BroadcastHub(AudioPlayerManager manager, LoadPipeline pipeline, ScheduledExecutorService playback,
+                        ScheduledExecutorService executor, int chunkSize, int capacity, int lead, long intervalMs) {
+        this.manager = manager;
+        this.pipeline = pipeline;
+        this.playback = playback;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.capacity = capacity;
+        this.lead = lead;
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+
+    /**
+     * Makes a stream available under the given name. Only called while setting up.
+     */
+    public void define(String name, String source) {
+        String key = name.toLowerCase();
+        sources.put(key, source);
+        // Guild ids are positive, so the streams' loads can share the pipeline without clashing with a guild
+        keys.put(key, -(long) keys.size() - 1);
+    }
+
+    public Set<String> getNames() {
+        return sources.keySet();
+    }
+
+    /**
+     * @return the source the stream plays, or null if there is no stream with that name
+     */
+    public String getSource(String name) {
+        return sources.get(name.toLowerCase());
+    }
+
+    /**
+     * @return the live streams, those with at least one guild tuned in
+     */
+    public Collection<BroadcastStream> getStreams() {
+        return streams.values();
+    }
+
+    /**
+     * @return the stream the guild is tuned in to, or null
+     */
+    public BroadcastStream getSubscription(long guildId) {
+        BroadcastSendHandler handler = subscriptions.get(guildId);
+        return handler != null ? handler.getStream() : null;
+    }
+
+    /**
+     * Tunes the guild in to a stream, leaving the one it was tuned in to, and loads the stream if it is not live.
+     *
+     * @return the handler to send the guild's audio with, or null if there is no stream with that name
+     */
+    public synchronized BroadcastSendHandler subscribe(String name, long guildId) {
+        String key = name.toLowerCase();
+        String source = sources.get(key);
+        if (source == null) return null;
+
+        unsubscribe(guildId);
+
+        BroadcastStream stream = streams.get(key);
+        if (stream == null) {
+            stream = open(key, source);
+            streams.put(key, stream);
+            startPump();
+        }
+
+        BroadcastSendHandler handler = stream.subscribe();
+        subscriptions.put(guildId, handler);
+        return handler;
+    }
+
+    /**
+     * Removes the guild from its stream, releasing the stream if nobody else is tuned in.
+     *
+     * @return the stream the guild was tuned in to, or null
+     */
+    public synchronized BroadcastStream unsubscribe(long guildId) {
+        BroadcastSendHandler handler = subscriptions.remove(guildId);
+        if (handler == null) return null;
+
+        BroadcastStream stream = handler.getStream();
+        if (stream.unsubscribe(handler) == 0) {
+            streams.remove(stream.getName(), stream);
+            pipeline.cancel(stream.getKey());
+            stream.close();
+            LOGGER.info("Broadcast {} stopped, no guild is tuned in.", stream.getName());
+        }
+
+        return stream;
+    }
+
+    public synchronized void shutdown() {
+        if (pump != null) {
+            pump.shutdownNow();
+            pump = null;
+        }
+    }
+
+    private BroadcastStream open(String name, String source) {
+        AudioPlayer player = manager.createPlayer();
+        TrackScheduler scheduler = new TrackScheduler(player, null, playback, 0);
+        player.addListener(scheduler);
+        // A looping queue keeps a playlist going round and restarts a live stream that dropped
+        scheduler.setLooping(true);
+
+        BroadcastStream stream = new BroadcastStream(name, source, keys.get(name), player, scheduler, capacity, lead);
+        LOGGER.info("Broadcast {} started.", name);
+
+        pipeline.submit(stream.getKey(), source, LoadPipeline.Priority.INTERACTIVE, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                scheduler.queue(track);
+                scheduler.playFirst();
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                if (playlist.getTracks().isEmpty()) {
+                    noMatches();
+                    return;
+                }
+
+                new PlaylistIngest(manager, scheduler, playlist.getTracks(), chunkSize, executor, false, null).run();
+                scheduler.playFirst();
+            }
+
+            @Override
+            public void noMatches() {
+                LOGGER.warn("Broadcast {} has nothing to play at {}.", name, source);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                LOGGER.warn("Unable to load broadcast {}: {}", name, exception.getMessage());
+            }
+        });
+
+        return stream;
+    }
+
+    private void startPump() {
+        if (pump != null) return;
+
+        pump = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MusicCore-Broadcast");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        pump.scheduleAtFixedRate(this::pumpAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void pumpAll() {
+        for (BroadcastStream stream : streams.values()) {
+            try {
+                stream.pump();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
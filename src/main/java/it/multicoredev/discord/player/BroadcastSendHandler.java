@@ -0,0 +1,135 @@
+package it.multicoredev.discord.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BroadcastSendHandler implements GuildAudioSendHandler {
+    private final BroadcastStream stream;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private final LongAdder provided = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private volatile long cursor;
+    private volatile Runnable nextFrameCallback;
+
+    /**
+     * Sends a guild the frames of a {@link BroadcastStream}. The cursor is the sequence of the next frame to send;
+     * only the guild's send thread moves it, the broadcast thread reads it to know how far ahead to decode.
+     */
+    BroadcastSendHandler(BroadcastStream stream, long cursor) {
+        this.stream = stream;
+        this.cursor = cursor;
+    }
+
+    public BroadcastStream getStream() {
+        return stream;
+    }
+
+    long getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean canProvide() {
+        long head = stream.getHead();
+        long position = cursor;
+
+        if (head - position > stream.getSlack()) {
+            overruns.add(head - stream.getLead() - position);
+            position = head - stream.getLead();
+            stream.lapped();
+        }
+
+        byte[] data = position < head ? stream.get(position) : null;
+        if (data == null) {
+            // Overwritten between reading the head and the slot: the writer lapped us, start again from its lead
+            if (position < head) {
+                cursor = head - stream.getLead();
+                overruns.add(cursor - position);
+                stream.lapped();
+            } else if (stream.isPlaying()) {
+                missed.increment();
+            }
+            return false;
+        }
+
+        buffer.clear();
+        buffer.put(data);
+        cursor = position + 1;
+        provided.increment();
+
+        Runnable callback = nextFrameCallback;
+        if (callback != null) {
+            nextFrameCallback = null;
+            callback.run();
+        }
+
+        return true;
+    }
+
+    @Override
+    public ByteBuffer provide20MsAudio() {
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void onNextFrame(Runnable callback) {
+        nextFrameCallback = callback;
+    }
+
+    /**
+     * Broadcast frames are shared and not recorded.
+     */
+    @Override
+    public void setRecorder(FrameRecorder recorder) {
+    }
+
+    @Override
+    public long getProvidedFrames() {
+        return provided.sum();
+    }
+
+    @Override
+    public long getMissedFrames() {
+        return missed.sum();
+    }
+
+    @Override
+    public long getUnderruns() {
+        return missed.sum();
+    }
+
+    /**
+     * Frames skipped because the broadcast thread overwrote them before this guild's send thread got to them.
+     */
+    @Override
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    @Override
+    public boolean isOpus() {
+        return true;
+    }
+}
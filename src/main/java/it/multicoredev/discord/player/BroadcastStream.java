@@ -0,0 +1,189 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BroadcastStream {
+    private static final int FRAME_SIZE = 1024;
+
+    private final String name;
+    private final String source;
+    private final long key;
+    private final AudioPlayer player;
+    private final TrackScheduler scheduler;
+    private final AtomicReferenceArray<Frame> ring;
+    private final int mask;
+    private final int lead;
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+    private final List<BroadcastSendHandler> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder produced = new LongAdder();
+    private final LongAdder lapped = new LongAdder();
+    private volatile long head;
+
+    /**
+     * A named stream decoded once and shared by every guild tuned in to it. The frames taken from its player go into
+     * a ring written by the broadcast thread only; each subscribed guild reads it through its own
+     * {@link BroadcastSendHandler}, which keeps its own position and never locks.
+     * <p>
+     * The ring is kept lead frames ahead of the furthest subscriber, so frames are taken from the player as fast as
+     * the guilds play them and not faster. A subscriber that falls more than the ring behind skips forward.
+     *
+     * @param key      id the stream's loads go through the pipeline under
+     * @param capacity frames the ring holds, rounded up to a power of two
+     * @param lead     frames kept ready ahead of the furthest subscriber
+     */
+    BroadcastStream(String name, String source, long key, AudioPlayer player, TrackScheduler scheduler, int capacity, int lead) {
+        this.name = name;
+        this.source = source;
+        this.key = key;
+        this.player = player;
+        this.scheduler = scheduler;
+
+        int size = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.lead = Math.max(1, Math.min(size / 2, lead));
+        this.frame.setBuffer(ByteBuffer.allocate(FRAME_SIZE));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    long getKey() {
+        return key;
+    }
+
+    public int getSubscribers() {
+        return subscribers.size();
+    }
+
+    public long getProduced() {
+        return produced.sum();
+    }
+
+    /**
+     * @return times a subscriber fell behind the ring and skipped forward
+     */
+    public long getLapped() {
+        return lapped.sum();
+    }
+
+    BroadcastSendHandler subscribe() {
+        BroadcastSendHandler handler = new BroadcastSendHandler(this, Math.max(0, head - lead));
+        subscribers.add(handler);
+        return handler;
+    }
+
+    /**
+     * @return the subscribers left
+     */
+    int unsubscribe(BroadcastSendHandler handler) {
+        subscribers.remove(handler);
+        return subscribers.size();
+    }
+
+    /**
+     * Takes frames from the player until the ring is lead frames ahead of the furthest subscriber. Only ever called
+     * from the broadcast thread.
+     */
+    void pump() {
+        long frontier = -1;
+        for (BroadcastSendHandler subscriber : subscribers) {
+            frontier = Math.max(frontier, subscriber.getCursor());
+        }
+
+        if (frontier < 0) return;
+
+        long sequence = head;
+        while (sequence < frontier + lead && player.provide(frame)) {
+            byte[] data = new byte[frame.getDataLength()];
+            frame.getData(data, 0);
+
+            // Frames are never written in place, so a reader holding one can not see it change
+            ring.set((int) (sequence & mask), new Frame(sequence, data));
+            head = ++sequence;
+            produced.increment();
+        }
+    }
+
+    /**
+     * @return the sequence the next frame will be written at
+     */
+    long getHead() {
+        return head;
+    }
+
+    int getLead() {
+        return lead;
+    }
+
+    /**
+     * @return how far behind the head a subscriber may be before the frame it wants could be overwritten
+     */
+    int getSlack() {
+        return mask + 1 - lead;
+    }
+
+    /**
+     * @return the frame at the given sequence, or null if it has been overwritten
+     */
+    byte[] get(long sequence) {
+        Frame frame = ring.get((int) (sequence & mask));
+        return frame != null && frame.sequence == sequence ? frame.data : null;
+    }
+
+    boolean isPlaying() {
+        return player.getPlayingTrack() != null && !player.isPaused();
+    }
+
+    void lapped() {
+        lapped.increment();
+    }
+
+    void close() {
+        scheduler.close();
+        scheduler.empty();
+        player.destroy();
+    }
+
+    private static final class Frame {
+        private final long sequence;
+        private final byte[] data;
+
+        private Frame(long sequence, byte[] data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+}
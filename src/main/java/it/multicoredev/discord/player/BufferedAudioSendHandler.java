@@ -0,0 +1,183 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class BufferedAudioSendHandler implements GuildAudioSendHandler {
+    private static final int FRAME_SIZE = 1024;
+
+    private final Supplier<AudioPlayer> audioPlayer;
+    private final ByteBuffer[] ring;
+    private final MutableAudioFrame frame;
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong provided = new AtomicLong();
+
+    private volatile long head;
+    private volatile long tail;
+    private volatile long flushedTo;
+    private volatile Runnable nextFrameCallback;
+    private volatile FrameRecorder recorder;
+    private boolean inFlight;
+
+    public BufferedAudioSendHandler(Supplier<AudioPlayer> audioPlayer, int depth) {
+        if (depth < 2) throw new IllegalArgumentException("Buffer depth must be at least 2 frames.");
+
+        this.audioPlayer = audioPlayer;
+        this.ring = new ByteBuffer[depth];
+        this.frame = new MutableAudioFrame();
+
+        for (int i = 0; i < depth; i++) {
+            ring[i] = ByteBuffer.allocateDirect(FRAME_SIZE);
+        }
+    }
+
+    /**
+     * Called by the {@link FramePrefetcher} thread only. Pulls frames from the player until the ring is full
+     * or the player has nothing more to give. The slot currently handed to JDA is never overwritten.
+     */
+    void fill() {
+        long position = tail;
+
+        while (position - head < ring.length) {
+            ByteBuffer slot = ring[(int) (position % ring.length)];
+            slot.clear();
+            frame.setBuffer(slot);
+
+            AudioPlayer player = audioPlayer.get();
+            if (!player.provide(frame)) {
+                AudioPlayer next = audioPlayer.get();
+                if (next == player || !next.provide(frame)) break;
+                player = next;
+            }
+
+            FrameRecorder recorder = this.recorder;
+            if (recorder != null) recorder.record(player.getPlayingTrack(), frame);
+
+            slot.flip();
+            tail = ++position;
+        }
+    }
+
+    /**
+     * Drops every frame buffered so far, used when the playing track is replaced or stopped so stale audio is not
+     * sent. Frames buffered after the call belong to the next track and are kept.
+     */
+    public void flush() {
+        flushedTo = tail;
+    }
+
+    @Override
+    public boolean canProvide() {
+        long position = head;
+
+        if (inFlight) {
+            inFlight = false;
+            position++;
+        }
+
+        long flushed = flushedTo;
+        if (flushed > position) {
+            overruns.addAndGet(flushed - position);
+            position = flushed;
+        }
+
+        head = position;
+
+        if (position == tail) {
+            AudioPlayer player = audioPlayer.get();
+            if (player.getPlayingTrack() != null && !player.isPaused()) underruns.incrementAndGet();
+            return false;
+        }
+
+        // Only the send thread writes this counter, an ordered store is enough
+        provided.lazySet(provided.get() + 1);
+
+        Runnable callback = nextFrameCallback;
+        if (callback != null) {
+            nextFrameCallback = null;
+            callback.run();
+        }
+
+        return true;
+    }
+
+    @Override
+    public ByteBuffer provide20MsAudio() {
+        inFlight = true;
+        return ring[(int) (head % ring.length)];
+    }
+
+    @Override
+    public void onNextFrame(Runnable callback) {
+        nextFrameCallback = callback;
+    }
+
+    @Override
+    public boolean isOpus() {
+        return true;
+    }
+
+    @Override
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public long getProvidedFrames() {
+        return provided.get();
+    }
+
+    @Override
+    public long getMissedFrames() {
+        return underruns.get();
+    }
+
+    public int getDepth() {
+        return ring.length;
+    }
+
+    public int getBufferedFrames() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Number of 20 ms ticks where JDA asked for audio while a track was playing but the ring was empty.
+     */
+    @Override
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    /**
+     * Number of buffered frames that were thrown away by a flush before they could be sent.
+     */
+    @Override
+    public long getOverruns() {
+        return overruns.get();
+    }
+}
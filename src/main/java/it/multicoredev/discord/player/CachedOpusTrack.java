@@ -0,0 +1,85 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.container.common.OpusPacketRouter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class CachedOpusTrack extends DelegatedAudioTrack {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+
+    private final AudioTrack source;
+    private final ByteBuffer file;
+    private final int frames;
+    private final int dataStart;
+    private volatile int cursor;
+
+    /**
+     * Plays Opus frames recorded by {@link FrameRecorder} straight from a memory-mapped file. The frames go through
+     * lavaplayer's Opus packet router, which hands them to the player untouched while the volume is 100 and no filter
+     * is set, and only decodes and encodes them again otherwise.
+     *
+     * @param source the track the frames were recorded from; it is what gets journaled
+     */
+    CachedOpusTrack(AudioTrackInfo info, AudioTrack source, ByteBuffer file, int frames, int dataStart) {
+        super(info);
+        this.source = source;
+        this.file = file;
+        this.frames = frames;
+        this.dataStart = dataStart;
+    }
+
+    public AudioTrack getSource() {
+        return source;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        OpusPacketRouter router = new OpusPacketRouter(executor.getProcessingContext(), SAMPLE_RATE, CHANNELS);
+
+        try {
+            executor.executeProcessingLoop(() -> {
+                while (cursor < frames) {
+                    router.process(OpusFrameCache.frame(file, dataStart, cursor));
+                    cursor++;
+                }
+            }, position -> {
+                // The frame index makes a seek a division
+                int index = (int) Math.max(0, Math.min(frames, position / OpusFrameCache.FRAME_MS));
+                cursor = index;
+                router.seekPerformed(position, (long) index * OpusFrameCache.FRAME_MS);
+            });
+        } finally {
+            router.close();
+        }
+    }
+
+    @Override
+    protected AudioTrack makeShallowClone() {
+        return new CachedOpusTrack(trackInfo, source, file, frames, dataStart);
+    }
+}
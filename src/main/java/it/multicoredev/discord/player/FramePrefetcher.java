@@ -0,0 +1,69 @@
+package it.multicoredev.discord.player;
+
+import it.multicoredev.discord.Utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class FramePrefetcher {
+    private final List<BufferedAudioSendHandler> handlers = new CopyOnWriteArrayList<>();
+    private final long intervalMs;
+    private ScheduledExecutorService executor;
+
+    public FramePrefetcher(long intervalMs) {
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+
+    public synchronized void register(BufferedAudioSendHandler handler) {
+        handlers.add(handler);
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(Utils.threadFactory("MusicCore-Prefetcher", Thread.MAX_PRIORITY));
+            executor.scheduleAtFixedRate(this::fillAll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void unregister(BufferedAudioSendHandler handler) {
+        handlers.remove(handler);
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void fillAll() {
+        for (BufferedAudioSendHandler handler : handlers) {
+            try {
+                handler.fill();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
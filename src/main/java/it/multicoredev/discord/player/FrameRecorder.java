@@ -0,0 +1,185 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Records the frames a guild sends for a track, for {@link OpusFrameCache}. A recording is kept only if it covers
+ * the whole track, in order, at full volume and full quality: a seek, a volume change, a quality step down or a
+ * track that does not finish drops it. Recordings are replayed to every guild, so none may carry degraded audio.
+ * At most two recordings exist per guild, the playing track's and the one of the track that just handed over to it
+ * and is waiting for its end event.
+ */
+public class FrameRecorder {
+    private static final int FULL_VOLUME = 100;
+    private static final long TIMECODE_TOLERANCE = 5;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final OpusFrameCache cache;
+    private final BooleanSupplier fullQuality;
+    private Recording current;
+    private Recording ending;
+
+    /**
+     * @param fullQuality whether the guild's player manager is at its best quality level right now
+     */
+    public FrameRecorder(OpusFrameCache cache, BooleanSupplier fullQuality) {
+        this.cache = cache;
+        this.fullQuality = fullQuality;
+    }
+
+    /**
+     * Called from the send path with every frame taken from a player.
+     */
+    public synchronized void record(AudioTrack track, AudioFrame frame) {
+        if (track == null) return;
+
+        if (current == null || current.track != track) {
+            if (ending != null) ending.drop();
+            ending = current;
+            current = start(track);
+        }
+
+        if (current.data == null) return;
+
+        long expected = (long) current.frames * OpusFrameCache.FRAME_MS;
+        if (frame.getVolume() != FULL_VOLUME || Math.abs(frame.getTimecode() - expected) > TIMECODE_TOLERANCE
+                || !fullQuality.getAsBoolean()) {
+            current.drop();
+            return;
+        }
+
+        current.append(frame);
+    }
+
+    /**
+     * Called with the end event of every track; stores the recording if the track ran to its end.
+     */
+    public synchronized void trackEnded(AudioTrack track, AudioTrackEndReason reason) {
+        Recording recording;
+        if (current != null && current.track == track) {
+            recording = current;
+            current = null;
+        } else if (ending != null && ending.track == track) {
+            recording = ending;
+            ending = null;
+        } else {
+            return;
+        }
+
+        // A few frames may still sit in lavaplayer's buffer when the end is reported for a track of unknown length
+        if (reason == AudioTrackEndReason.FINISHED && recording.data != null
+                && (long) recording.frames * OpusFrameCache.FRAME_MS >= track.getDuration() * 9 / 10) {
+            recording.store();
+        } else {
+            recording.drop();
+        }
+    }
+
+    /**
+     * Drops the recordings in progress, for a guild being torn down.
+     */
+    public synchronized void clear() {
+        if (current != null) current.drop();
+        if (ending != null) ending.drop();
+        current = null;
+        ending = null;
+    }
+
+    private Recording start(AudioTrack track) {
+        Recording recording = new Recording(track);
+        if (track instanceof CachedOpusTrack) return recording;
+
+        String key = OpusFrameCache.key(track.getInfo());
+        if (!cache.beginRecording(track, key)) return recording;
+
+        recording.key = key;
+        if (cache.reserve(INITIAL_CAPACITY)) {
+            recording.reserved = INITIAL_CAPACITY;
+            recording.data = new byte[INITIAL_CAPACITY];
+            recording.offsets = new int[1024];
+        } else {
+            recording.drop();
+        }
+
+        return recording;
+    }
+
+    private final class Recording {
+        private final AudioTrack track;
+        private String key;
+        private byte[] data;
+        private int[] offsets;
+        private int frames;
+        private long reserved;
+
+        private Recording(AudioTrack track) {
+            this.track = track;
+        }
+
+        private void append(AudioFrame frame) {
+            int length = frame.getDataLength();
+            int end = offsets[frames] + length;
+
+            if (end > data.length) {
+                int capacity = Math.max(end, data.length * 2);
+                if (!cache.reserve(capacity - data.length)) {
+                    drop();
+                    return;
+                }
+
+                reserved += capacity - data.length;
+                data = Arrays.copyOf(data, capacity);
+            }
+
+            if (frames + 1 >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+            frame.getData(data, offsets[frames]);
+            offsets[++frames] = end;
+        }
+
+        private void store() {
+            if (key == null) return;
+
+            cache.endRecording(key, data, offsets, frames, reserved);
+            release();
+        }
+
+        private void drop() {
+            if (key == null) return;
+
+            cache.endRecording(key, null, null, 0, reserved);
+            release();
+        }
+
+        private void release() {
+            key = null;
+            data = null;
+            offsets = null;
+        }
+    }
+}
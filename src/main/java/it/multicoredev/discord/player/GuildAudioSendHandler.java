@@ -0,0 +1,56 @@
+package it.multicoredev.discord.player;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public interface GuildAudioSendHandler extends AudioSendHandler {
+
+    /**
+     * Runs the callback once, on the send thread, the next time a frame is handed to JDA.
+     */
+    void onNextFrame(Runnable callback);
+
+    /**
+     * @return frames handed to JDA so far
+     */
+    long getProvidedFrames();
+
+    /**
+     * @return 20 ms ticks where a track was playing but no frame was ready
+     */
+    long getMissedFrames();
+
+    /**
+     * @return 20 ms ticks where a track was playing but the handler had nothing queued to send
+     */
+    long getUnderruns();
+
+    /**
+     * @return frames that were produced for the guild but dropped before they could be sent
+     */
+    long getOverruns();
+
+    /**
+     * Hands every frame taken from a player to the recorder, or stops recording when null.
+     */
+    void setRecorder(FrameRecorder recorder);
+}
@@ -2,6 +2,16 @@ package it.multicoredev.discord.player;
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import it.multicoredev.discord.journal.QueueJournal;
+import it.multicoredev.discord.journal.QueueSnapshot;
+import net.dv8tion.jda.api.managers.AudioManager;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BooleanSupplier;
 
 /**
  * Copyright © 2020 by Lorenzo Magni
@@ -24,16 +34,178 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class GuildMusicManager {
-    public final AudioPlayer player;
     public final TrackScheduler scheduler;
+    private final AudioPlayer player;
+    private final AudioPlayer standby;
+    private final FramePrefetcher prefetcher;
+    private final GuildAudioSendHandler sendHandler;
+    private final VoiceConnectionListener connectionListener;
+    private final FrameRecorder recorder;
+    private volatile boolean restored;
+    private volatile AudioManager audioManager;
+    private volatile BroadcastSendHandler broadcast;
+    private volatile long lastActive = System.nanoTime();
+    private boolean retired;
 
-    public GuildMusicManager(AudioPlayerManager manager) {
+    public GuildMusicManager(AudioPlayerManager manager, FramePrefetcher prefetcher, int bufferDepth, long preloadMs,
+                             GapMeter gaps, ScheduledExecutorService executor, OpusFrameCache frameCache, BooleanSupplier fullQuality) {
         player = manager.createPlayer();
-        scheduler = new TrackScheduler(player);
+        standby = preloadMs > 0 ? manager.createPlayer() : null;
+        this.prefetcher = prefetcher;
+        scheduler = new TrackScheduler(player, standby, executor, preloadMs);
+        connectionListener = new VoiceConnectionListener();
+
+        if (bufferDepth > 1) {
+            BufferedAudioSendHandler buffered = new BufferedAudioSendHandler(scheduler::getPlayer, bufferDepth);
+            prefetcher.register(buffered);
+            sendHandler = buffered;
+        } else {
+            sendHandler = new AudioPlayerSendHandler(scheduler::getPlayer);
+        }
+
+        if (frameCache != null) {
+            recorder = new FrameRecorder(frameCache, fullQuality);
+            sendHandler.setRecorder(recorder);
+            scheduler.setFrameCache(frameCache);
+        } else {
+            recorder = null;
+        }
+
+        AudioEventAdapter listener = new AudioEventAdapter() {
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                if (recorder != null) recorder.trackEnded(track, endReason);
+                if (player != scheduler.getPlayer()) return;
+
+                if (endReason == AudioTrackEndReason.FINISHED) {
+                    long endedAt = System.nanoTime();
+                    sendHandler.onNextFrame(() -> gaps.record(System.nanoTime() - endedAt));
+                } else if (sendHandler instanceof BufferedAudioSendHandler
+                        && (endReason == AudioTrackEndReason.REPLACED || endReason == AudioTrackEndReason.STOPPED)) {
+                    ((BufferedAudioSendHandler) sendHandler).flush();
+                }
+            }
+        };
+
+        player.addListener(listener);
         player.addListener(scheduler);
+        if (standby != null) {
+            standby.addListener(listener);
+            standby.addListener(scheduler);
+        }
+    }
+
+    public AudioPlayer getPlayer() {
+        return scheduler.getPlayer();
+    }
+
+    public GuildAudioSendHandler getSendHandler() {
+        return sendHandler;
+    }
+
+    /**
+     * @return the broadcast the guild is tuned in to instead of its own player, or null
+     */
+    public BroadcastSendHandler getBroadcast() {
+        return broadcast;
+    }
+
+    /**
+     * Sends the guild a broadcast instead of its own player, or its own player again when null.
+     */
+    public void setBroadcast(BroadcastSendHandler broadcast) {
+        this.broadcast = broadcast;
+
+        AudioManager audioManager = this.audioManager;
+        if (audioManager != null) attach(audioManager);
+    }
+
+    public VoiceConnectionListener getConnectionListener() {
+        return connectionListener;
+    }
+
+    /**
+     * Rebuilds the queue from the guild's journal the first time it is called and starts journaling from then on.
+     */
+    public void restore(QueueJournal journal, long guildId) {
+        if (restored) return;
+
+        synchronized (this) {
+            if (restored) return;
+
+            try {
+                QueueSnapshot snapshot = journal.restore(guildId);
+                if (snapshot != null) scheduler.restore(snapshot);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            scheduler.setJournal(journal.open(guildId));
+            restored = true;
+        }
+    }
+
+    /**
+     * Marks the guild as in use.
+     *
+     * @return false if the manager has been retired and a new one must be created
+     */
+    public synchronized boolean touch() {
+        if (retired) return false;
+
+        lastActive = System.nanoTime();
+        return true;
+    }
+
+    public long getIdleNanos() {
+        return System.nanoTime() - lastActive;
+    }
+
+    public AudioManager getAudioManager() {
+        return audioManager;
     }
 
-    public AudioPlayerSendHandler getSendHandler() {
-        return new AudioPlayerSendHandler(player);
+    /**
+     * Retires the manager if it has been idle for at least the given time. The queue is flushed to the journal
+     * before the manager is marked retired, so a replacement created right after restores the full state.
+     *
+     * @return true if the manager was retired and must be destroyed
+     */
+    public synchronized boolean retire(long idleNanos, QueueJournal journal, long guildId) {
+        if (retired || getIdleNanos() < idleNanos) return false;
+
+        scheduler.close();
+        if (journal != null) journal.close(guildId);
+        retired = true;
+        return true;
+    }
+
+    /**
+     * Releases the players and their track threads. Only valid on a retired manager.
+     */
+    public void destroy() {
+        if (sendHandler instanceof BufferedAudioSendHandler) prefetcher.unregister((BufferedAudioSendHandler) sendHandler);
+        if (recorder != null) recorder.clear();
+
+        player.destroy();
+        if (standby != null) standby.destroy();
+
+        AudioManager audioManager = this.audioManager;
+        if (audioManager != null && (audioManager.getSendingHandler() == sendHandler || audioManager.getSendingHandler() == broadcast)) {
+            audioManager.setSendingHandler(null);
+        }
+    }
+
+    public void attach(AudioManager audioManager) {
+        this.audioManager = audioManager;
+
+        GuildAudioSendHandler handler = broadcast != null ? broadcast : sendHandler;
+        if (audioManager.getSendingHandler() != handler) {
+            audioManager.setSendingHandler(handler);
+        }
+
+        if (audioManager.getConnectionListener() != connectionListener) {
+            audioManager.setConnectionListener(connectionListener);
+        }
     }
 }
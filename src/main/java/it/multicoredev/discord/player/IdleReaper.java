@@ -0,0 +1,118 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.VoiceChannel;
+import net.dv8tion.jda.api.managers.AudioManager;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class IdleReaper {
+    private static final long CHECK_INTERVAL = 30;
+
+    private final MusicPlayer player;
+    private final long disconnectNanos;
+    private final long evictNanos;
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * A guild counts as idle while nothing is playing or nobody but bots is in its voice channel. After
+     * disconnectMs of idleness the voice connection is closed; after evictMs, once disconnected, the guild's
+     * manager and players are released. Either step is disabled by a value of 0.
+     */
+    public IdleReaper(MusicPlayer player, long disconnectMs, long evictMs) {
+        this.player = player;
+        this.disconnectNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, disconnectMs));
+        this.evictNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, evictMs));
+    }
+
+    public void start(ScheduledExecutorService scheduler) {
+        if (disconnectNanos == 0 && evictNanos == 0) return;
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void check() {
+        player.forEachManager((id, manager) -> {
+            try {
+                check(id, manager);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void check(long guildId, GuildMusicManager manager) {
+        if (player.isPinned(guildId)) return;
+
+        AudioManager audioManager = manager.getAudioManager();
+        boolean connected = audioManager != null && (audioManager.isConnected() || audioManager.isAttemptingToConnect());
+
+        if (connected && isPlaying(manager) && hasListeners(audioManager)) {
+            manager.touch();
+            return;
+        }
+
+        long idle = manager.getIdleNanos();
+
+        if (connected) {
+            if (disconnectNanos > 0 && idle >= disconnectNanos) {
+                audioManager.closeAudioConnection();
+                disconnects.increment();
+            }
+            return;
+        }
+
+        if (evictNanos > 0 && idle >= evictNanos && player.evict(guildId, manager, evictNanos)) {
+            evictions.increment();
+        }
+    }
+
+    private static boolean isPlaying(GuildMusicManager manager) {
+        if (manager.getBroadcast() != null) return true;
+
+        AudioPlayer audioPlayer = manager.getPlayer();
+        return audioPlayer.getPlayingTrack() != null && !audioPlayer.isPaused();
+    }
+
+    private static boolean hasListeners(AudioManager audioManager) {
+        VoiceChannel channel = audioManager.getConnectedChannel();
+        if (channel == null) return false;
+
+        for (Member member : channel.getMembers()) {
+            if (!member.getUser().isBot()) return true;
+        }
+
+        return false;
+    }
+}
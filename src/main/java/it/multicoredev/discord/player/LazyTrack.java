@@ -0,0 +1,156 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackState;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import com.sedmelluq.discord.lavaplayer.track.TrackMarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LazyTrack implements AudioTrack {
+    private final AudioPlayerManager manager;
+    private final AudioTrackInfo info;
+    private final byte[] encoded;
+    private volatile Object userData;
+
+    /**
+     * A queue entry that only keeps the track info and its encoded form. It cannot be played itself:
+     * {@link #resolve()} decodes a real track right before it is started.
+     */
+    public LazyTrack(AudioPlayerManager manager, AudioTrackInfo info, byte[] encoded) {
+        this.manager = manager;
+        this.info = info;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @return a placeholder for the track, or the track itself if it cannot be encoded
+     */
+    public static AudioTrack of(AudioPlayerManager manager, AudioTrack track) {
+        if (track instanceof LazyTrack) return track;
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            manager.encodeTrack(new MessageOutput(out), track);
+            return new LazyTrack(manager, track.getInfo(), out.toByteArray());
+        } catch (IOException e) {
+            return track;
+        }
+    }
+
+    /**
+     * @return a freshly decoded, playable track or null if it can no longer be decoded
+     */
+    public AudioTrack resolve() {
+        try {
+            DecodedTrackHolder holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+            if (holder == null || holder.decodedTrack == null) return null;
+
+            holder.decodedTrack.setUserData(userData);
+            return holder.decodedTrack;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    @Override
+    public AudioTrackInfo getInfo() {
+        return info;
+    }
+
+    @Override
+    public String getIdentifier() {
+        return info.identifier;
+    }
+
+    @Override
+    public AudioTrackState getState() {
+        return AudioTrackState.INACTIVE;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return !info.isStream;
+    }
+
+    @Override
+    public long getPosition() {
+        return 0;
+    }
+
+    @Override
+    public void setPosition(long position) {
+    }
+
+    @Override
+    public void setMarker(TrackMarker marker) {
+    }
+
+    @Override
+    public long getDuration() {
+        return info.length;
+    }
+
+    @Override
+    public AudioTrack makeClone() {
+        LazyTrack clone = new LazyTrack(manager, info, encoded);
+        clone.userData = userData;
+        return clone;
+    }
+
+    @Override
+    public AudioSourceManager getSourceManager() {
+        return null;
+    }
+
+    @Override
+    public void setUserData(Object userData) {
+        this.userData = userData;
+    }
+
+    @Override
+    public Object getUserData() {
+        return userData;
+    }
+
+    @Override
+    public <T> T getUserData(Class<T> klass) {
+        return klass.isInstance(userData) ? klass.cast(userData) : null;
+    }
+}
@@ -0,0 +1,356 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.metrics.HistogramFamily;
+import it.multicoredev.discord.metrics.LabeledCounter;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LoadPipeline {
+    public enum Priority {
+        INTERACTIVE("interactive"),
+        BACKGROUND("background");
+
+        private final String label;
+
+        Priority(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final TrackLoader loader;
+    private final int workers;
+    private final int perGuild;
+    private final Map<Long, GuildQueue> queues = new HashMap<>();
+    private final ArrayDeque<GuildQueue>[] ready;
+    private final HistogramFamily waits = new HistogramFamily();
+    private final HistogramFamily executions = new HistogramFamily();
+    private final LabeledCounter cancelled = new LabeledCounter();
+    private int running;
+    private int queued;
+    private boolean dispatching;
+
+    /**
+     * @param workers  loads resolved at the same time across every guild
+     * @param perGuild loads a single guild may have resolving at the same time
+     */
+    @SuppressWarnings("unchecked")
+    public LoadPipeline(TrackLoader loader, int workers, int perGuild) {
+        this.loader = loader;
+        this.workers = Math.max(1, workers);
+        this.perGuild = Math.max(1, perGuild);
+
+        ready = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < ready.length; i++) {
+            ready[i] = new ArrayDeque<>();
+        }
+    }
+
+    public TrackLoader getLoader() {
+        return loader;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return time loads spent queued before a worker picked them up, by priority
+     */
+    public HistogramFamily getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return time loads took once they were running, by priority
+     */
+    public HistogramFamily getExecutions() {
+        return executions;
+    }
+
+    /**
+     * @return loads dropped by {@link #cancel(long)}, by the state they were in: queued or running
+     */
+    public LabeledCounter getCancelled() {
+        return cancelled;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * Queues a load for a guild. Guilds take turns for the free workers, interactive loads always go before background
+     * ones, and the results of one guild are delivered in the order its loads were started.
+     *
+     * @return a future completed once the handler has been called, or once the load has been cancelled
+     */
+    public CompletableFuture<Void> submit(long guildId, String identifier, Priority priority, AudioLoadResultHandler handler) {
+        Task task = new Task(identifier, priority, handler);
+
+        synchronized (this) {
+            GuildQueue queue = queues.computeIfAbsent(guildId, GuildQueue::new);
+            task.generation = queue.generation;
+            queue.pending[priority.ordinal()].add(task);
+            queued++;
+            markReady(queue, priority.ordinal());
+        }
+
+        dispatch();
+        return task.done;
+    }
+
+    /**
+     * Drops every load of a guild that has not started yet. Loads already running finish (their result still lands in
+     * the track cache) but their handlers are not called.
+     */
+    public void cancel(long guildId) {
+        ArrayDeque<Task> dropped = new ArrayDeque<>();
+
+        synchronized (this) {
+            GuildQueue queue = queues.get(guildId);
+            if (queue == null) return;
+
+            queue.generation++;
+            for (ArrayDeque<Task> pending : queue.pending) {
+                dropped.addAll(pending);
+                pending.clear();
+            }
+
+            queued -= dropped.size();
+            if (queue.inFlight == 0) queues.remove(guildId);
+        }
+
+        for (Task task : dropped) {
+            cancelled.increment("queued");
+            task.done.complete(null);
+        }
+    }
+
+    private void markReady(GuildQueue queue, int priority) {
+        if (!queue.ready[priority] && !queue.pending[priority].isEmpty() && queue.inFlight < perGuild) {
+            queue.ready[priority] = true;
+            ready[priority].add(queue);
+        }
+    }
+
+    /**
+     * Starts loads while there are free workers. Only one thread runs the loop at a time, the others leave the work
+     * they made possible to it: a load that completes right away, like a cache hit, calls back in here from
+     * {@link #start}, and starting the next load from that call instead would nest one call per load.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) return;
+            dispatching = true;
+        }
+
+        while (true) {
+            Task task;
+            GuildQueue queue;
+            CompletableFuture<Void> previous;
+
+            synchronized (this) {
+                if (running >= workers) {
+                    dispatching = false;
+                    return;
+                }
+
+                task = null;
+                queue = null;
+                for (int priority = 0; priority < ready.length && task == null; priority++) {
+                    while ((queue = ready[priority].poll()) != null) {
+                        queue.ready[priority] = false;
+                        if (queue.inFlight >= perGuild) continue;
+
+                        task = queue.pending[priority].poll();
+                        if (task == null) continue;
+
+                        queue.inFlight++;
+                        // Back of the line, so the other guilds get the next workers
+                        markReady(queue, priority);
+                        break;
+                    }
+                }
+
+                if (task == null) {
+                    dispatching = false;
+                    return;
+                }
+
+                queued--;
+                running++;
+                previous = queue.delivered;
+                queue.delivered = task.done;
+            }
+
+            try {
+                start(queue, task, previous);
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    dispatching = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void start(GuildQueue queue, Task task, CompletableFuture<Void> previous) {
+        long started = System.nanoTime();
+        waits.get(task.priority.getLabel()).record(started - task.queuedAt);
+
+        Outcome outcome = new Outcome();
+        CompletableFuture<Void> resolved;
+
+        try {
+            resolved = loader.resolve(task.identifier, outcome);
+        } catch (Exception e) {
+            e.printStackTrace();
+            resolved = CompletableFuture.completedFuture(null);
+        }
+
+        resolved.whenComplete((result, error) -> {
+            executions.get(task.priority.getLabel()).record(System.nanoTime() - started);
+
+            synchronized (this) {
+                running--;
+                queue.inFlight--;
+
+                for (int priority = 0; priority < PRIORITIES.length; priority++) {
+                    markReady(queue, priority);
+                }
+            }
+
+            previous.whenComplete((r, e) -> deliver(queue, task, outcome));
+            dispatch();
+        });
+    }
+
+    private void deliver(GuildQueue queue, Task task, Outcome outcome) {
+        boolean current;
+
+        synchronized (this) {
+            current = task.generation == queue.generation;
+
+            if (queue.inFlight == 0 && queue.delivered == task.done && queue.isEmpty()) {
+                queues.remove(queue.guildId, queue);
+            }
+        }
+
+        if (!current) cancelled.increment("running");
+
+        try {
+            if (current && outcome.result != null) outcome.result.accept(task.handler);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            task.done.complete(null);
+        }
+    }
+
+    private static final class GuildQueue {
+        private final long guildId;
+        private final ArrayDeque<Task>[] pending;
+        private final boolean[] ready = new boolean[PRIORITIES.length];
+        private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+        private int inFlight;
+        private long generation;
+
+        @SuppressWarnings("unchecked")
+        private GuildQueue(long guildId) {
+            this.guildId = guildId;
+
+            pending = new ArrayDeque[PRIORITIES.length];
+            for (int i = 0; i < pending.length; i++) {
+                pending[i] = new ArrayDeque<>();
+            }
+        }
+
+        private boolean isEmpty() {
+            for (ArrayDeque<Task> tasks : pending) {
+                if (!tasks.isEmpty()) return false;
+            }
+
+            return true;
+        }
+    }
+
+    private static final class Task {
+        private final String identifier;
+        private final Priority priority;
+        private final AudioLoadResultHandler handler;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private long generation;
+
+        private Task(String identifier, Priority priority, AudioLoadResultHandler handler) {
+            this.identifier = identifier;
+            this.priority = priority;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Holds a result until the loads started before it have been delivered.
+     */
+    private static final class Outcome implements AudioLoadResultHandler {
+        private volatile Consumer<AudioLoadResultHandler> result;
+
+        @Override
+        public void trackLoaded(AudioTrack track) {
+            result = handler -> handler.trackLoaded(track);
+        }
+
+        @Override
+        public void playlistLoaded(AudioPlaylist playlist) {
+            result = handler -> handler.playlistLoaded(playlist);
+        }
+
+        @Override
+        public void noMatches() {
+            result = AudioLoadResultHandler::noMatches;
+        }
+
+        @Override
+        public void loadFailed(FriendlyException exception) {
+            result = handler -> handler.loadFailed(exception);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package it.multicoredev.discord.player;
 
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
 import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
@@ -8,16 +9,38 @@ import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import it.multicoredev.discord.Utils;
+import it.multicoredev.discord.cluster.Handoff;
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.discord.journal.QueueJournal;
+import it.multicoredev.discord.library.LibraryEntry;
+import it.multicoredev.discord.library.MusicLibrary;
+import it.multicoredev.discord.messaging.Messages;
+import it.multicoredev.discord.messaging.ProgressMessage;
+import it.multicoredev.discord.metrics.MetricsCollector;
+import it.multicoredev.discord.metrics.MetricsWriter;
+import it.multicoredev.discord.settings.GuildSettingsStore;
 import it.multicoredev.mclib.yaml.Configuration;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.entities.VoiceChannel;
 import net.dv8tion.jda.api.managers.AudioManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
 
 /**
  * Copyright © 2020 by Lorenzo Magni
@@ -39,34 +62,479 @@ import java.util.Map;
  * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class MusicPlayer {
-    private final Configuration config;
-    private AudioPlayerManager playerManager;
-    private Map<Long, GuildMusicManager> musicManagers;
+public class MusicPlayer implements MetricsCollector {
+    private static final String[] TRACK_TARGETS = {"{track}", "{author}"};
+    private static final String[] MOVE_TARGETS = {"{from}", "{to}"};
+    private static final String[] FOLDER_TARGETS = {"{folder}", "{count}"};
+    private static final String[] PROGRESS_TARGETS = {"{playlist}", "{count}", "{total}"};
+    private static final String[] BROADCAST_TARGETS = {"{broadcast}", "{broadcasts}"};
 
-    public MusicPlayer(Configuration config) {
+    private final Configuration config;
+    private final GuildSettingsStore settings;
+    private final AudioPlayerManager playerManager;
+    private final AudioPlayerManager premiumManager;
+    private final Set<Long> premiumGuilds;
+    private final QualityGovernor governor;
+    private final OpusFrameCache frameCache;
+    private final LongConcurrentMap<GuildMusicManager> musicManagers;
+    private final LongFunction<GuildMusicManager> managerFactory;
+    private final FramePrefetcher prefetcher;
+    private final TrackLoader loader;
+    private final LoadPipeline pipeline;
+    private final BroadcastHub broadcasts;
+    private final LongConcurrentMap<Queue<PlaylistIngest>> ingests = new LongConcurrentMap<>();
+    private final List<LongConsumer> releaseListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService playback;
+    private final int chunkSize;
+    private final long progressInterval;
+    private final QueueJournal journal;
+    private final IdleReaper reaper;
+    private final MusicLibrary library;
+    private final GapMeter gaps = new GapMeter();
+
+    /**
+     * @param scheduler runs playlist chunks and the periodic checks
+     * @param io        runs the journal, track cache and Opus cache writes
+     */
+    public MusicPlayer(Configuration config, GuildSettingsStore settings, ScheduledExecutorService scheduler, ScheduledExecutorService io) {
         this.config = config;
-        musicManagers = new HashMap<>();
+        this.settings = settings;
+        this.scheduler = scheduler;
+        // Track advances and preloads decide whether there is silence between tracks, nothing else runs on these
+        this.playback = Executors.newScheduledThreadPool(2, Utils.threadFactory("MusicCore-Playback", Thread.MAX_PRIORITY));
+        chunkSize = config.getInt("playlists.chunk-size", 100);
+        progressInterval = config.getLong("playlists.progress-interval", 2000);
+        musicManagers = new LongConcurrentMap<>();
         playerManager = new DefaultAudioPlayerManager();
+        prefetcher = new FramePrefetcher(config.getLong("audio.prefetch-interval", 10));
+        long preload = config.getBoolean("audio.gapless", true) ? TimeUnit.SECONDS.toMillis(config.getLong("audio.gapless-preload", 5)) : 0;
+
+        if (config.getBoolean("opus-cache.enabled", true)) {
+            frameCache = new OpusFrameCache(new File(config.getString("opus-cache.directory", "opus-cache")),
+                    config.getLong("opus-cache.max-size", 1024) * 1024 * 1024,
+                    TimeUnit.MINUTES.toMillis(config.getLong("opus-cache.max-track-length", 15)),
+                    config.getLong("opus-cache.recording-memory", 64) * 1024 * 1024,
+                    io);
+            frameCache.load();
+        } else {
+            frameCache = null;
+        }
+
+        managerFactory = id -> new GuildMusicManager(getPlayerManager(id), prefetcher, getBufferDepth(id), preload, gaps, playback, frameCache,
+                () -> isFullQuality(id));
 
         AudioSourceManagers.registerRemoteSources(playerManager);
         AudioSourceManagers.registerLocalSource(playerManager);
+
+        TrackCache cache = null;
+        if (config.getBoolean("track-cache.enabled", true)) {
+            String file = config.getString("track-cache.file", "");
+            cache = new TrackCache(playerManager,
+                    config.getInt("track-cache.max-entries", 5000),
+                    TimeUnit.MINUTES.toMillis(config.getLong("track-cache.ttl", 1440)),
+                    file == null || file.isEmpty() ? null : new File(file));
+
+            try {
+                cache.load();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            TrackCache persisted = cache;
+            io.scheduleWithFixedDelay(() -> saveCache(persisted), 5, 5, TimeUnit.MINUTES);
+        }
+
+        loader = new TrackLoader(playerManager, cache);
+        pipeline = new LoadPipeline(loader, config.getInt("loading.workers", 4), config.getInt("loading.per-guild", 1));
+        // Lavaplayer's pool only has to cover the pipeline's workers and the library probes
+        playerManager.setItemLoaderThreadPoolSize(pipeline.getWorkers() + (config.getBoolean("library.enabled", false) ? MusicLibrary.PROBE_CONCURRENCY : 0));
+
+        broadcasts = new BroadcastHub(playerManager, pipeline, playback, scheduler, chunkSize,
+                config.getInt("broadcast.ring-size", 64),
+                config.getInt("broadcast.lead", 10),
+                config.getLong("audio.prefetch-interval", 10));
+        if (config.contains("broadcast.streams")) {
+            for (String name : config.getSection("broadcast.streams").getKeys()) {
+                broadcasts.define(name, config.getString("broadcast.streams." + name));
+            }
+        }
+
+        if (config.getBoolean("journal.enabled", true)) {
+            journal = new QueueJournal(playerManager,
+                    new File(config.getString("journal.directory", "journal")),
+                    config.getInt("journal.compact-threshold", 2000),
+                    config.getBoolean("journal.fsync", false));
+            journal.start(io, Math.max(10, config.getLong("journal.flush-interval", 1000)));
+        } else {
+            journal = null;
+        }
+
+        if (config.getBoolean("library.enabled", false)) {
+            List<File> directories = new ArrayList<>();
+            for (String directory : config.getStringList("library.directories")) {
+                directories.add(new File(directory));
+            }
+
+            library = new MusicLibrary(playerManager, directories, new File(config.getString("library.index-file", "library.idx")));
+            library.start();
+        } else {
+            library = null;
+        }
+
+        premiumGuilds = new HashSet<>();
+        for (String id : config.getStringList("quality.premium-guilds")) {
+            try {
+                premiumGuilds.add(Long.parseLong(id));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        if (config.getBoolean("quality.enabled", true)) {
+            QualityGovernor.Level[] levels = QualityGovernor.ladder(
+                    getResamplingQuality("quality.resampling-max", AudioConfiguration.ResamplingQuality.HIGH),
+                    getResamplingQuality("quality.resampling-min", AudioConfiguration.ResamplingQuality.LOW),
+                    config.getInt("quality.opus-max", 10),
+                    config.getInt("quality.opus-min", 4));
+
+            // Premium guilds get players from a manager of their own, left at the best quality; it only creates players
+            if (premiumGuilds.isEmpty()) {
+                premiumManager = null;
+            } else {
+                premiumManager = new DefaultAudioPlayerManager();
+                levels[0].apply(premiumManager.getConfiguration());
+            }
+
+            governor = new QualityGovernor(this, playerManager.getConfiguration(), levels, new QualityGovernor.Thresholds(
+                    config.getDouble("quality.cpu-high", 85) / 100,
+                    config.getDouble("quality.cpu-low", 60) / 100,
+                    config.getDouble("quality.miss-high", 1) / 100,
+                    config.getDouble("quality.miss-low", 0.2) / 100,
+                    config.getInt("quality.down-after", 2),
+                    config.getInt("quality.up-after", 6)));
+            governor.start(scheduler, TimeUnit.SECONDS.toMillis(Math.max(1, config.getLong("quality.interval", 5))));
+        } else {
+            premiumManager = null;
+            governor = null;
+        }
+
+        reaper = new IdleReaper(this,
+                TimeUnit.MINUTES.toMillis(config.getLong("idle.disconnect", 5)),
+                TimeUnit.MINUTES.toMillis(config.getLong("idle.evict", 30)));
+        reaper.start(scheduler);
+    }
+
+    /**
+     * @return the silence measured between consecutive tracks
+     */
+    public GapMeter getGaps() {
+        return gaps;
+    }
+
+    /**
+     * @return the local music library or null if it is disabled
+     */
+    public MusicLibrary getLibrary() {
+        return library;
+    }
+
+    public TrackLoader getLoader() {
+        return loader;
+    }
+
+    public LoadPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public void shutdown() {
+        prefetcher.shutdown();
+        broadcasts.shutdown();
+        if (loader.getCache() != null) saveCache(loader.getCache());
+        if (journal != null) journal.flushAll();
+    }
+
+    /**
+     * @return true if the guild's queue will be rebuilt from its journal instead of being loaded again
+     */
+    public boolean hasJournal(Guild guild) {
+        return journal != null && journal.exists(guild.getIdLong());
+    }
+
+    public boolean isJournaling() {
+        return journal != null;
+    }
+
+    /**
+     * @return every guild with a live manager or a journal on disk
+     */
+    public Set<Long> getKnownGuilds() {
+        Set<Long> guilds = new HashSet<>();
+        musicManagers.forEach((id, manager) -> guilds.add(id));
+        if (journal != null) guilds.addAll(journal.getGuildIds());
+        return guilds;
+    }
+
+    /**
+     * @return the id of the voice channel the guild is connected to, 0 if none
+     */
+    public long getConnectedChannel(long guildId) {
+        GuildMusicManager manager = musicManagers.get(guildId);
+        AudioManager audioManager = manager != null ? manager.getAudioManager() : null;
+        VoiceChannel channel = audioManager != null ? audioManager.getConnectedChannel() : null;
+        return channel != null ? channel.getIdLong() : 0;
+    }
+
+    /**
+     * Stops the guild on this node and packs its queue, loop flag and track position for another node.
+     *
+     * @param epoch the epoch of the shard lease this node holds, stamped on the handoff
+     * @return the handoff or null if the guild has nothing to hand off
+     */
+    public Handoff release(long guildId, long voiceChannel, long epoch) throws IOException {
+        retire(guildId);
+
+        byte[] state = journal.export(guildId);
+        return state == null ? null : new Handoff(guildId, voiceChannel, epoch, state);
+    }
+
+    /**
+     * Stops the guild on this node and throws its journal away, for a guild that already belongs to another node.
+     */
+    public void discard(long guildId) throws IOException {
+        retire(guildId);
+        journal.delete(guildId);
+    }
+
+    /**
+     * Takes over a guild handed off by another node; its queue is rebuilt on the next access.
+     */
+    public void adopt(Handoff handoff) throws IOException {
+        retire(handoff.getGuildId());
+        journal.adopt(handoff.getGuildId(), handoff.getJournal());
+    }
+
+    private void retire(long guildId) {
+        cancelLoads(guildId);
+        GuildMusicManager manager = musicManagers.get(guildId);
+        if (manager != null && manager.retire(0, journal, guildId)) {
+            musicManagers.remove(guildId, manager);
+            broadcasts.unsubscribe(guildId);
+            manager.destroy();
+        }
+
+        forget(guildId);
+    }
+
+    /**
+     * Called with the id of every guild whose manager is evicted or handed off, to drop what other components keep
+     * for it.
+     */
+    public void addReleaseListener(LongConsumer listener) {
+        releaseListeners.add(listener);
+    }
+
+    private void forget(long guildId) {
+        settings.forget(guildId);
+
+        for (LongConsumer listener : releaseListeners) {
+            try {
+                listener.accept(guildId);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void forEachManager(LongConcurrentMap.EntryConsumer<GuildMusicManager> consumer) {
+        musicManagers.forEach(consumer);
+    }
+
+    /**
+     * Autostart guilds are meant to stay connected and are never reaped.
+     */
+    boolean isPinned(long guildId) {
+        return settings.exists(guildId) && settings.get(guildId).isAutostart();
+    }
+
+    /**
+     * Drops an idle guild's manager. Without a journal only guilds with nothing queued are evicted, as their
+     * queue could not be rebuilt.
+     */
+    boolean evict(long guildId, GuildMusicManager manager, long idleNanos) {
+        if (journal == null && !manager.scheduler.isIdle()) return false;
+        if (!manager.retire(idleNanos, journal, guildId)) return false;
+
+        musicManagers.remove(guildId, manager);
+        broadcasts.unsubscribe(guildId);
+        manager.destroy();
+        cancelLoads(guildId);
+        forget(guildId);
+        return true;
+    }
+
+    private void saveCache(TrackCache cache) {
+        try {
+            cache.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void collect(MetricsWriter writer) {
+        writer.family("musiccore_guild_managers", "gauge", "Guild music managers currently alive.");
+        writer.sample("musiccore_guild_managers", musicManagers.size());
+        writer.family("musiccore_idle_disconnects_total", "counter", "Voice connections closed because the guild was idle.");
+        writer.sample("musiccore_idle_disconnects_total", reaper.getDisconnects());
+        writer.family("musiccore_idle_evictions_total", "counter", "Idle guild managers released.");
+        writer.sample("musiccore_idle_evictions_total", reaper.getEvictions());
+
+        writer.family("musiccore_frames_provided_total", "counter", "Audio frames handed to JDA.");
+        musicManagers.forEach((id, manager) -> writer.sample("musiccore_frames_provided_total", manager.getSendHandler().getProvidedFrames(), "guild", Long.toString(id)));
+
+        writer.family("musiccore_frames_missed_total", "counter", "Send ticks with a playing track but no frame ready.");
+        musicManagers.forEach((id, manager) -> writer.sample("musiccore_frames_missed_total", manager.getSendHandler().getMissedFrames(), "guild", Long.toString(id)));
+
+        writer.family("musiccore_frames_underrun_total", "counter", "Send ticks where a track was playing but the send handler had nothing queued.");
+        musicManagers.forEach((id, manager) -> writer.sample("musiccore_frames_underrun_total", manager.getSendHandler().getUnderruns(), "guild", Long.toString(id)));
+
+        writer.family("musiccore_frames_overrun_total", "counter", "Frames produced for the guild but dropped before they were sent.");
+        musicManagers.forEach((id, manager) -> writer.sample("musiccore_frames_overrun_total", manager.getSendHandler().getOverruns(), "guild", Long.toString(id)));
+
+        writer.family("musiccore_queue_size", "gauge", "Tracks waiting in the guild queue.");
+        musicManagers.forEach((id, manager) -> writer.sample("musiccore_queue_size", manager.scheduler.size(), "guild", Long.toString(id)));
+
+        writer.family("musiccore_voice_ping_milliseconds", "gauge", "Last voice connection ping.");
+        musicManagers.forEach((id, manager) -> {
+            long ping = manager.getConnectionListener().getPing();
+            if (ping >= 0) writer.sample("musiccore_voice_ping_milliseconds", ping, "guild", Long.toString(id));
+        });
+
+        writer.family("musiccore_track_load_seconds", "histogram", "Time taken by track lookups by result.");
+        loader.getLatency().forEach((result, histogram) -> writer.histogram("musiccore_track_load_seconds", histogram, "result", result));
+
+        writer.family("musiccore_track_loads_total", "counter", "Track lookups by result.");
+        loader.getResults().forEach((result, count) -> writer.sample("musiccore_track_loads_total", count, "result", result));
+
+        writer.family("musiccore_load_wait_seconds", "histogram", "Time track loads spent queued before a worker picked them up.");
+        pipeline.getWaits().forEach((priority, histogram) -> writer.histogram("musiccore_load_wait_seconds", histogram, "priority", priority));
+        writer.family("musiccore_load_execution_seconds", "histogram", "Time track loads took once they were running.");
+        pipeline.getExecutions().forEach((priority, histogram) -> writer.histogram("musiccore_load_execution_seconds", histogram, "priority", priority));
+        writer.family("musiccore_loads_cancelled_total", "counter", "Track loads dropped because they were superseded.");
+        pipeline.getCancelled().forEach((state, count) -> writer.sample("musiccore_loads_cancelled_total", count, "state", state));
+        writer.family("musiccore_loads_pending", "gauge", "Track loads queued or running in the pipeline.");
+        writer.sample("musiccore_loads_pending", pipeline.getQueued(), "state", "queued");
+        writer.sample("musiccore_loads_pending", pipeline.getRunning(), "state", "running");
+
+        if (governor != null) {
+            QualityGovernor.Level level = governor.getCurrent();
+            writer.family("musiccore_quality_level", "gauge", "Audio quality step of standard guilds, 0 being the best.");
+            writer.sample("musiccore_quality_level", governor.getLevel());
+            writer.family("musiccore_quality_opus", "gauge", "Opus encoding quality of standard guilds.");
+            writer.sample("musiccore_quality_opus", level.getOpus());
+            writer.family("musiccore_quality_resampling", "gauge", "Resampling quality of standard guilds.");
+            writer.sample("musiccore_quality_resampling", 1, "quality", level.getResampling().name().toLowerCase());
+            writer.family("musiccore_quality_changes_total", "counter", "Audio quality steps taken by the governor.");
+            writer.sample("musiccore_quality_changes_total", governor.getLowered(), "direction", "down");
+            writer.sample("musiccore_quality_changes_total", governor.getRaised(), "direction", "up");
+            writer.family("musiccore_frame_miss_ratio", "gauge", "Share of send ticks without a frame ready, as last sampled.");
+            writer.sample("musiccore_frame_miss_ratio", governor.getMissRate());
+            if (governor.getCpu() >= 0) {
+                writer.family("musiccore_process_cpu_ratio", "gauge", "Process CPU load, as last sampled.");
+                writer.sample("musiccore_process_cpu_ratio", governor.getCpu());
+            }
+        }
+
+        writer.family("musiccore_track_transitions_total", "counter", "Track changes whose gap was measured.");
+        writer.sample("musiccore_track_transitions_total", gaps.getCount());
+        writer.family("musiccore_track_gap_milliseconds", "gauge", "Silence between consecutive tracks.");
+        writer.sample("musiccore_track_gap_milliseconds", gaps.getAverageMillis(), "stat", "avg");
+        writer.sample("musiccore_track_gap_milliseconds", gaps.getMaxMillis(), "stat", "max");
+
+        if (frameCache != null) {
+            writer.family("musiccore_opus_cache_tracks", "gauge", "Tracks whose Opus frames are cached on disk.");
+            writer.sample("musiccore_opus_cache_tracks", frameCache.size());
+            writer.family("musiccore_opus_cache_bytes", "gauge", "Size of the Opus frame cache on disk.");
+            writer.sample("musiccore_opus_cache_bytes", frameCache.getBytes());
+            writer.family("musiccore_opus_cache_requests_total", "counter", "Opus frame cache lookups by result.");
+            writer.sample("musiccore_opus_cache_requests_total", frameCache.getHits(), "result", "hit");
+            writer.sample("musiccore_opus_cache_requests_total", frameCache.getMisses(), "result", "miss");
+            writer.family("musiccore_opus_cache_stored_total", "counter", "Tracks recorded into the Opus frame cache.");
+            writer.sample("musiccore_opus_cache_stored_total", frameCache.getStored());
+            writer.family("musiccore_opus_cache_evictions_total", "counter", "Tracks evicted from the Opus frame cache.");
+            writer.sample("musiccore_opus_cache_evictions_total", frameCache.getEvictions());
+        }
+
+        writer.family("musiccore_broadcast_guilds", "gauge", "Guilds tuned in to a broadcast.");
+        broadcasts.getStreams().forEach(stream -> writer.sample("musiccore_broadcast_guilds", stream.getSubscribers(), "stream", stream.getName()));
+        writer.family("musiccore_broadcast_frames_total", "counter", "Frames decoded once for every guild tuned in to a broadcast.");
+        broadcasts.getStreams().forEach(stream -> writer.sample("musiccore_broadcast_frames_total", stream.getProduced(), "stream", stream.getName()));
+        writer.family("musiccore_broadcast_lapped_total", "counter", "Times a guild fell behind a broadcast's ring and skipped forward.");
+        broadcasts.getStreams().forEach(stream -> writer.sample("musiccore_broadcast_lapped_total", stream.getLapped(), "stream", stream.getName()));
+
+        TrackCache cache = loader.getCache();
+        if (cache != null) {
+            writer.family("musiccore_track_cache_entries", "gauge", "Identifiers held by the track cache.");
+            writer.sample("musiccore_track_cache_entries", cache.size());
+            writer.family("musiccore_track_cache_requests_total", "counter", "Track cache lookups by result.");
+            writer.sample("musiccore_track_cache_requests_total", cache.getHits(), "result", "hit");
+            writer.sample("musiccore_track_cache_requests_total", cache.getMisses(), "result", "miss");
+        }
+    }
+
+    public GuildMusicManager getMusicManager(Guild guild) {
+        return getGuildAudioPlayer(guild);
+    }
+
+    private GuildMusicManager getGuildAudioPlayer(Guild guild) {
+        return getGuildAudioPlayer(guild.getIdLong(), guild.getAudioManager());
     }
 
-    private synchronized GuildMusicManager getGuildAudioPlayer(Guild guild) {
-        long id = Long.parseLong(guild.getId());
-        GuildMusicManager musicManager = musicManagers.get(id);
+    /**
+     * @param audioManager the guild's audio manager, null for a guild of the local gateway which has none
+     */
+    private GuildMusicManager getGuildAudioPlayer(long guildId, AudioManager audioManager) {
+        GuildMusicManager musicManager = musicManagers.computeIfAbsent(guildId, managerFactory);
 
-        if (musicManager == null) {
-            musicManager = new GuildMusicManager(playerManager);
-            musicManagers.put(id, musicManager);
+        // Lost a race with the idle reaper: drop the retired manager and build a fresh one from the journal
+        while (!musicManager.touch()) {
+            musicManagers.remove(guildId, musicManager);
+            musicManager = musicManagers.computeIfAbsent(guildId, managerFactory);
         }
 
-        guild.getAudioManager().setSendingHandler(musicManager.getSendHandler());
+        if (audioManager != null) musicManager.attach(audioManager);
+        if (journal != null) musicManager.restore(journal, guildId);
 
         return musicManager;
     }
 
+    private AudioPlayerManager getPlayerManager(long guildId) {
+        return premiumManager != null && premiumGuilds.contains(guildId) ? premiumManager : playerManager;
+    }
+
+    /**
+     * @return true if the guild's audio is encoded at the best quality level, the only one the Opus cache records
+     */
+    private boolean isFullQuality(long guildId) {
+        return governor == null || getPlayerManager(guildId) == premiumManager || governor.getLevel() == 0;
+    }
+
+    private AudioConfiguration.ResamplingQuality getResamplingQuality(String path, AudioConfiguration.ResamplingQuality def) {
+        String quality = config.getString(path, def.name());
+
+        try {
+            return AudioConfiguration.ResamplingQuality.valueOf(quality.toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return def;
+        }
+    }
+
+    private int getBufferDepth(long guildId) {
+        String override = "guilds." + guildId + ".buffer-depth";
+        if (config.contains(override)) return config.getInt(override);
+        return config.getInt("audio.buffer-depth", 0);
+    }
+
     private void connectToFirstVoiceChannel(AudioManager audioManager) {
         if (!audioManager.isConnected() && !audioManager.isAttemptingToConnect()) {
             for (VoiceChannel voiceChannel : audioManager.getGuild().getVoiceChannels()) {
@@ -77,6 +545,7 @@ public class MusicPlayer {
     }
 
     private void play(Guild guild, GuildMusicManager musicManager, AudioTrack track) {
+        leaveBroadcast(guild.getIdLong(), musicManager);
         connectToFirstVoiceChannel(guild.getAudioManager());
 
         musicManager.scheduler.queueAndPlay(track);
@@ -85,19 +554,20 @@ public class MusicPlayer {
     public void play(Guild guild) {
         GuildMusicManager musicManager = getGuildAudioPlayer(guild);
 
+        leaveBroadcast(guild.getIdLong(), musicManager);
         musicManager.scheduler.playFirst();
     }
 
     public void loadAndPlay(TextChannel channel, String url) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
 
-        playerManager.loadItemOrdered(musicManager, url, new AudioLoadResultHandler() {
+        pipeline.submit(channel.getGuild().getIdLong(), url, LoadPipeline.Priority.INTERACTIVE, new AudioLoadResultHandler() {
             @Override
             public void trackLoaded(AudioTrack track) {
-                if (musicManager.player.getPlayingTrack() == null) {
-                    Utils.sendMessage(channel, config.getString("messages.play"), new String[]{"{track}", "{author}"}, new String[]{track.getInfo().title, track.getInfo().author});
+                if (musicManager.getPlayer().getPlayingTrack() == null) {
+                    Utils.sendMessage(channel, Messages.get("play"), TRACK_TARGETS, new String[]{track.getInfo().title, track.getInfo().author});
                 } else {
-                    Utils.sendMessage(channel, config.getString("messages.playlist-add"), new String[]{"{track}", "{author}"}, new String[]{track.getInfo().title, track.getInfo().author});
+                    Utils.sendStatusMessage(channel, "playlist-add", Messages.get("playlist-add"), TRACK_TARGETS, new String[]{track.getInfo().title, track.getInfo().author});
                 }
 
                 play(channel.getGuild(), musicManager, track);
@@ -105,29 +575,110 @@ public class MusicPlayer {
 
             @Override
             public void playlistLoaded(AudioPlaylist playlist) {
-                for (AudioTrack track : playlist.getTracks()) {
-                    play(channel.getGuild(), musicManager, track);
+                List<AudioTrack> tracks = playlist.getTracks();
+                if (tracks.isEmpty()) {
+                    Utils.sendMessage(channel, Messages.get("not-found"));
+                    return;
                 }
 
-                Utils.sendMessage(channel, config.getString("messages.playlist-add-playlist"), "{playlist}", playlist.getName());
+                // The progress callback keeps only the name and size, not the playlist whose tracks are being queued
+                String name = playlist.getName();
+                int size = tracks.size();
+                String total = String.valueOf(size);
+                ProgressMessage message = new ProgressMessage(channel, progressInterval);
+
+                leaveBroadcast(channel.getGuild().getIdLong(), musicManager);
+                connectToFirstVoiceChannel(channel.getGuild().getAudioManager());
+                ingest(channel.getGuild().getIdLong(), musicManager, tracks, true, count -> {
+                    String[] values = {name, String.valueOf(count), total};
+                    if (count < size) {
+                        message.update(Messages.get("playlist-progress").render(PROGRESS_TARGETS, values));
+                    } else {
+                        message.finish(Messages.get("playlist-added").render(PROGRESS_TARGETS, values));
+                    }
+                });
             }
 
             @Override
             public void noMatches() {
-                Utils.sendMessage(channel, config.getString("messages.not-found"));
+                Utils.sendMessage(channel, Messages.get("not-found"));
             }
 
             @Override
             public void loadFailed(FriendlyException exception) {
-                Utils.sendMessage(channel, config.getString("messages.not-loaded"));
+                Utils.sendMessage(channel, Messages.get("not-loaded"));
             }
         });
     }
 
-    public void addToPlaylist(Guild guild, String url) {
-        GuildMusicManager musicManager = getGuildAudioPlayer(guild);
+    /**
+     * Plays the best library match for the query; the track comes straight from the index, the file is not probed.
+     */
+    public void playFromLibrary(TextChannel channel, String query) {
+        List<LibraryEntry> results = library.search(query, 1);
+        if (results.isEmpty()) {
+            Utils.sendMessage(channel, Messages.get("not-found"));
+            return;
+        }
+
+        AudioTrack track = library.createTrack(results.get(0));
+        if (track == null) {
+            Utils.sendMessage(channel, Messages.get("not-loaded"));
+            return;
+        }
+
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        if (musicManager.getPlayer().getPlayingTrack() == null) {
+            Utils.sendMessage(channel, Messages.get("play"), TRACK_TARGETS, new String[]{track.getInfo().title, track.getInfo().author});
+        } else {
+            Utils.sendStatusMessage(channel, "playlist-add", Messages.get("playlist-add"), TRACK_TARGETS, new String[]{track.getInfo().title, track.getInfo().author});
+        }
+
+        play(channel.getGuild(), musicManager, track);
+    }
+
+    /**
+     * Enqueues every track of a library folder in file name order.
+     */
+    public void playFolder(TextChannel channel, String folder) {
+        List<LibraryEntry> entries = library.folder(folder);
+        if (entries.isEmpty()) {
+            Utils.sendMessage(channel, Messages.get("folder-not-found"));
+            return;
+        }
 
-        playerManager.loadItemOrdered(musicManager, url, new AudioLoadResultHandler() {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        int added = 0;
+
+        for (LibraryEntry entry : entries) {
+            AudioTrack track = library.createTrack(entry);
+            if (track == null) continue;
+
+            play(channel.getGuild(), musicManager, track);
+            added++;
+        }
+
+        Utils.sendMessage(channel, Messages.get("folder-add"), FOLDER_TARGETS, new String[]{entries.get(0).getFolder(), String.valueOf(added)});
+    }
+
+    public CompletableFuture<Void> addToPlaylist(Guild guild, String url) {
+        return addToPlaylist(guild.getIdLong(), getGuildAudioPlayer(guild), url);
+    }
+
+    /**
+     * Queues tracks for a guild known only by its id, as served by the local gateway: nothing is played, but the
+     * queue is journaled and handed off between nodes like any other.
+     */
+    public CompletableFuture<Void> addToPlaylist(long guildId, String url) {
+        return addToPlaylist(guildId, getGuildAudioPlayer(guildId, null), url);
+    }
+
+    public List<AudioTrack> getPlaylist(long guildId) {
+        return getGuildAudioPlayer(guildId, null).scheduler.getPlaylist();
+    }
+
+    private CompletableFuture<Void> addToPlaylist(long guildId, GuildMusicManager musicManager, String url) {
+        return pipeline.submit(guildId, url, LoadPipeline.Priority.BACKGROUND, new AudioLoadResultHandler() {
             @Override
             public void trackLoaded(AudioTrack track) {
                 musicManager.scheduler.queue(track);
@@ -135,6 +686,7 @@ public class MusicPlayer {
 
             @Override
             public void playlistLoaded(AudioPlaylist playlist) {
+                ingest(guildId, musicManager, playlist.getTracks(), false, null);
             }
 
             @Override
@@ -147,37 +699,102 @@ public class MusicPlayer {
         });
     }
 
+    /**
+     * Queues a playlist in chunks. The first chunk is queued before returning, so the first track can start right
+     * away; the rest follows on the scheduler. A newer playlist for the same guild does not stop an older one.
+     */
+    private void ingest(long guildId, GuildMusicManager musicManager, List<AudioTrack> tracks, boolean play, IntConsumer progress) {
+        PlaylistIngest ingest = new PlaylistIngest(playerManager, musicManager.scheduler, tracks, chunkSize, scheduler, play, progress);
+
+        Queue<PlaylistIngest> running = ingests.computeIfAbsent(guildId, id -> new ConcurrentLinkedQueue<>());
+        running.add(ingest);
+        ingest.getDone().whenComplete((count, error) -> running.remove(ingest));
+        ingest.run();
+    }
+
+    /**
+     * Drops the guild's pending loads and stops any playlist still being queued.
+     */
+    private void cancelLoads(long guildId) {
+        pipeline.cancel(guildId);
+
+        Queue<PlaylistIngest> running = ingests.remove(guildId);
+        if (running != null) running.forEach(PlaylistIngest::cancel);
+    }
+
     public void skipTrack(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
         musicManager.scheduler.nextTrack();
 
-        Utils.sendMessage(channel, config.getString("messages.skip"));
+        Utils.sendMessage(channel, Messages.get("skip"));
     }
 
     public void playPause(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
 
-        if (!musicManager.player.isPaused()) {
-            musicManager.player.setPaused(true);
-            Utils.sendMessage(channel, config.getString("messages.pause"));
+        if (!musicManager.getPlayer().isPaused()) {
+            musicManager.getPlayer().setPaused(true);
+            Utils.sendStatusMessage(channel, "pause", Messages.get("pause"));
         } else {
-            musicManager.player.setPaused(false);
-            Utils.sendMessage(channel, config.getString("messages.resume"));
+            musicManager.getPlayer().setPaused(false);
+            Utils.sendStatusMessage(channel, "pause", Messages.get("resume"));
         }
     }
 
     public void stop(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
-        musicManager.player.stopTrack();
+        cancelLoads(channel.getGuild().getIdLong());
+        musicManager.scheduler.stop();
 
-        Utils.sendMessage(channel, config.getString("messages.stop"));
+        Utils.sendMessage(channel, Messages.get("stop"));
     }
 
     public void emptyPlaylist(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
 
+        cancelLoads(channel.getGuild().getIdLong());
         musicManager.scheduler.empty();
-        Utils.sendMessage(channel, config.getString("messages.empty"));
+        Utils.sendMessage(channel, Messages.get("empty"));
+    }
+
+    public void shuffle(TextChannel channel) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+
+        musicManager.scheduler.shuffle();
+        Utils.sendMessage(channel, Messages.get("shuffle"));
+    }
+
+    public void remove(TextChannel channel, int index) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        AudioTrack track = musicManager.scheduler.remove(index);
+
+        if (track == null) {
+            Utils.sendMessage(channel, Messages.get("not-in-playlist"));
+        } else {
+            Utils.sendMessage(channel, Messages.get("remove"), "{track}", track.getInfo().title);
+        }
+    }
+
+    public void move(TextChannel channel, int from, int to) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+
+        if (musicManager.scheduler.move(from, to)) {
+            Utils.sendMessage(channel, Messages.get("move"), MOVE_TARGETS, new String[]{String.valueOf(from + 1), String.valueOf(to + 1)});
+        } else {
+            Utils.sendMessage(channel, Messages.get("not-in-playlist"));
+        }
+    }
+
+    public void jump(TextChannel channel, int index) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        leaveBroadcast(channel.getGuild().getIdLong(), musicManager);
+        connectToFirstVoiceChannel(channel.getGuild().getAudioManager());
+
+        if (musicManager.scheduler.jump(index)) {
+            Utils.sendMessage(channel, Messages.get("jump"), "{position}", String.valueOf(index + 1));
+        } else {
+            Utils.sendMessage(channel, Messages.get("not-in-playlist"));
+        }
     }
 
     public void setVolume(TextChannel channel, int volume) {
@@ -185,9 +802,68 @@ public class MusicPlayer {
         else if (volume < 0) volume = 0;
 
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
-        musicManager.player.setVolume(volume);
+        musicManager.scheduler.setVolume(volume);
+
+        Utils.sendStatusMessage(channel, "volume", Messages.get("volume"), "{volume}", String.valueOf(volume));
+
+        // A broadcast is shared as it is decoded, so another volume needs the guild's own pipeline
+        if (volume != 100 && musicManager.getBroadcast() != null) {
+            BroadcastStream stream = leaveBroadcast(channel.getGuild().getIdLong(), musicManager);
+            if (stream != null) playOwn(channel, stream.getName(), stream.getSource());
+        }
+    }
+
+    /**
+     * Tunes the guild in to a broadcast, stopping its own player. A guild not at volume 100 plays the broadcast's
+     * source on its own player instead.
+     */
+    public void tune(TextChannel channel, String name) {
+        String source = broadcasts.getSource(name);
+        if (source == null) {
+            Utils.sendMessage(channel, Messages.get("broadcast-not-found"), BROADCAST_TARGETS, new String[]{name, String.join(", ", broadcasts.getNames())});
+            return;
+        }
+
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        if (musicManager.getPlayer().getVolume() != 100) {
+            playOwn(channel, name, source);
+            return;
+        }
+
+        cancelLoads(channel.getGuild().getIdLong());
+        musicManager.scheduler.stop();
+        musicManager.setBroadcast(broadcasts.subscribe(name, channel.getGuild().getIdLong()));
+        connectToFirstVoiceChannel(channel.getGuild().getAudioManager());
+
+        Utils.sendMessage(channel, Messages.get("broadcast-on"), "{broadcast}", name.toLowerCase());
+    }
+
+    public void untune(TextChannel channel) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+        BroadcastStream stream = leaveBroadcast(channel.getGuild().getIdLong(), musicManager);
+
+        if (stream == null) {
+            Utils.sendMessage(channel, Messages.get("not-tuned"));
+        } else {
+            Utils.sendMessage(channel, Messages.get("broadcast-off"), "{broadcast}", stream.getName());
+        }
+    }
 
-        Utils.sendMessage(channel, config.getString("messages.volume"), "{volume}", String.valueOf(volume));
+    private void playOwn(TextChannel channel, String name, String source) {
+        Utils.sendMessage(channel, Messages.get("broadcast-own"), "{broadcast}", name.toLowerCase());
+        loadAndPlay(channel, source);
+    }
+
+    /**
+     * Switches the guild back to its own player if it is tuned in to a broadcast.
+     *
+     * @return the stream the guild left, or null
+     */
+    private BroadcastStream leaveBroadcast(long guildId, GuildMusicManager musicManager) {
+        if (musicManager.getBroadcast() == null) return null;
+
+        musicManager.setBroadcast(null);
+        return broadcasts.unsubscribe(guildId);
     }
 
     public void loop(TextChannel channel) {
@@ -195,12 +871,12 @@ public class MusicPlayer {
 
         musicManager.scheduler.updateLooping();
 
-        config.set("guilds." + channel.getGuild().getId() + ".loop", musicManager.scheduler.isLooping());
+        settings.get(channel.getGuild().getIdLong()).setLoop(musicManager.scheduler.isLooping());
 
         if (musicManager.scheduler.isLooping()) {
-            Utils.sendMessage(channel, config.getString("messages.loop-on"));
+            Utils.sendStatusMessage(channel, "loop", Messages.get("loop-on"));
         } else {
-            Utils.sendMessage(channel, config.getString("messages.loop-off"));
+            Utils.sendStatusMessage(channel, "loop", Messages.get("loop-off"));
         }
     }
 
@@ -213,7 +889,7 @@ public class MusicPlayer {
     public AudioTrack getPlayingTrack(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
 
-        return musicManager.player.getPlayingTrack();
+        return musicManager.getPlayer().getPlayingTrack();
     }
 
     public List<AudioTrack> getPlaylist(TextChannel channel) {
@@ -222,6 +898,18 @@ public class MusicPlayer {
         return musicManager.scheduler.getPlaylist();
     }
 
+    public int getPlaylistSize(TextChannel channel) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+
+        return musicManager.scheduler.size();
+    }
+
+    public List<AudioTrack> getPlaylistPage(TextChannel channel, int from, int count) {
+        GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
+
+        return musicManager.scheduler.getPage(from, count);
+    }
+
     public List<String> getPlaylistSrc(TextChannel channel) {
         GuildMusicManager musicManager = getGuildAudioPlayer(channel.getGuild());
 
@@ -0,0 +1,323 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class OpusFrameCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpusFrameCache.class);
+    private static final int MAGIC = 0x4D434F46;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final String EXTENSION = ".frames";
+    static final int FRAME_MS = 20;
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxTrackMs;
+    private final long recordingBudget;
+    private final Executor executor;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<String> recording = new HashSet<>();
+    private final AtomicLong recordingBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long size;
+
+    /**
+     * Keeps the Opus frames sent for a track on disk, so later plays are read back from a memory-mapped file instead of
+     * being downloaded, decoded and encoded again. Files are evicted least recently played first once the cache
+     * grows past maxBytes.
+     *
+     * @param maxTrackMs      longest track that is recorded
+     * @param recordingBudget memory all the recordings in progress may take together
+     * @param executor        runs the file writes
+     */
+    public OpusFrameCache(File directory, long maxBytes, long maxTrackMs, long recordingBudget, Executor executor) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxTrackMs = maxTrackMs;
+        this.recordingBudget = recordingBudget;
+        this.executor = executor;
+    }
+
+    /**
+     * Indexes the files left by a previous run, oldest modification first, as a play touches its file.
+     */
+    public void load() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            LOGGER.warn("Unable to create the opus cache directory {}.", directory);
+            return;
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        synchronized (this) {
+            for (File file : files) {
+                String key = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+                entries.put(key, file.length());
+                size += file.length();
+            }
+        }
+
+        evict();
+        LOGGER.info("Opus cache holds {} tracks ({} MB).", entries.size(), size / (1024 * 1024));
+    }
+
+    public static String key(AudioTrackInfo info) {
+        String identifier = info.uri != null ? info.uri : info.identifier;
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : (identifier + '\n' + info.length).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * @return a track playing the cached frames of the given one, or null if they are not cached
+     */
+    public CachedOpusTrack open(AudioTrack track) {
+        AudioTrackInfo info = track.getInfo();
+        if (info.isStream) return null;
+
+        String key = key(info);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+
+        File file = getFile(key);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Invalid opus cache file " + file.getName());
+            }
+
+            int frames = buffer.getInt(8);
+            if (frames <= 0 || HEADER_SIZE + (frames + 1L) * 4 > buffer.limit()) {
+                throw new IOException("Truncated opus cache file " + file.getName());
+            }
+
+            hits.increment();
+            file.setLastModified(System.currentTimeMillis());
+            return new CachedOpusTrack(info, track, buffer, frames, HEADER_SIZE + (frames + 1) * 4);
+        } catch (IOException e) {
+            LOGGER.warn("Dropping opus cache entry {}: {}", key, e.getMessage());
+            remove(key);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the track should be recorded; the caller must then call {@link #endRecording} for the key
+     */
+    boolean beginRecording(AudioTrack track, String key) {
+        AudioTrackInfo info = track.getInfo();
+        if (info.isStream || info.length <= 0 || info.length > maxTrackMs) return false;
+
+        synchronized (this) {
+            if (entries.containsKey(key)) return false;
+            return recording.add(key);
+        }
+    }
+
+    /**
+     * Reserves memory for a recording.
+     *
+     * @return false if every recording in progress together would take more than the budget
+     */
+    boolean reserve(long bytes) {
+        if (recordingBytes.addAndGet(bytes) <= recordingBudget) return true;
+
+        recordingBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    private void unreserve(long bytes) {
+        recordingBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Writes a finished recording, or just releases its key and memory when data is null.
+     */
+    void endRecording(String key, byte[] data, int[] offsets, int frames, long reserved) {
+        if (data == null) {
+            synchronized (this) {
+                recording.remove(key);
+            }
+            unreserve(reserved);
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                long length = write(getFile(key), data, offsets, frames);
+
+                synchronized (this) {
+                    entries.put(key, length);
+                    size += length;
+                }
+
+                stored.increment();
+                evict();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    recording.remove(key);
+                }
+                unreserve(reserved);
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStored() {
+        return stored.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void evict() {
+        while (true) {
+            String key;
+
+            synchronized (this) {
+                if (size <= maxBytes || entries.isEmpty()) return;
+
+                Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+                Map.Entry<String, Long> eldest = iterator.next();
+                key = eldest.getKey();
+                size -= eldest.getValue();
+                iterator.remove();
+            }
+
+            // A track still playing from the file keeps its mapping after the delete
+            if (!getFile(key).delete()) LOGGER.warn("Unable to delete opus cache file {}.", key);
+            evictions.increment();
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (this) {
+            Long length = entries.remove(key);
+            if (length != null) size -= length;
+        }
+
+        getFile(key).delete();
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + EXTENSION);
+    }
+
+    /**
+     * Layout: magic, version, frame count, frame duration, then frame count + 1 offsets relative to the start of the
+     * frame data, then the frames themselves. Frame i starts at i * {@link #FRAME_MS} milliseconds.
+     */
+    private static long write(File file, byte[] data, int[] offsets, int frames) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(frames);
+            out.writeInt(FRAME_MS);
+
+            for (int i = 0; i <= frames; i++) {
+                out.writeInt(offsets[i]);
+            }
+
+            out.write(data, 0, offsets[frames]);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file.length();
+    }
+
+    /**
+     * @return the frame at the given index as a view of the mapped file
+     */
+    static ByteBuffer frame(ByteBuffer file, int dataStart, int index) {
+        int start = file.getInt(HEADER_SIZE + index * 4);
+        int end = file.getInt(HEADER_SIZE + (index + 1) * 4);
+
+        ByteBuffer frame = file.duplicate();
+        frame.limit(dataStart + end);
+        frame.position(dataStart + start);
+        return frame;
+    }
+}
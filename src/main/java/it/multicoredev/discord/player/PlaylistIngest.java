@@ -0,0 +1,121 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntConsumer;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PlaylistIngest implements Runnable {
+    private final AudioPlayerManager manager;
+    private final TrackScheduler scheduler;
+    private final AudioTrack[] tracks;
+    private final int chunkSize;
+    private final Executor executor;
+    private final IntConsumer progress;
+    private final CompletableFuture<Integer> done = new CompletableFuture<>();
+    private volatile boolean cancelled;
+    private boolean play;
+    private int next;
+
+    /**
+     * Appends a playlist to the queue a chunk at a time, one chunk per executor task, so a playlist with thousands of
+     * entries neither holds the scheduler's monitor nor its handler thread for long. Every entry is queued as a
+     * {@link LazyTrack}, which is decoded into a full track only right before it plays. Queued entries are dropped from
+     * the ingest, so the loaded tracks of a big playlist can be collected while the rest is still being added.
+     *
+     * @param play     start the first track if nothing is playing
+     * @param progress called with the number of tracks queued so far after each chunk
+     */
+    public PlaylistIngest(AudioPlayerManager manager, TrackScheduler scheduler, List<AudioTrack> tracks, int chunkSize,
+                          Executor executor, boolean play, IntConsumer progress) {
+        this.manager = manager;
+        this.scheduler = scheduler;
+        this.tracks = tracks.toArray(new AudioTrack[0]);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = executor;
+        this.play = play;
+        this.progress = progress;
+    }
+
+    public int getTotal() {
+        return tracks.length;
+    }
+
+    /**
+     * @return a future completed with the number of tracks queued, once the last chunk is in or the ingest was cancelled
+     */
+    public CompletableFuture<Integer> getDone() {
+        return done;
+    }
+
+    /**
+     * Stops queuing the chunks that have not been added yet.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Queues one chunk and schedules the next one.
+     */
+    @Override
+    public void run() {
+        if (cancelled) {
+            done.complete(next);
+            return;
+        }
+
+        try {
+            int end = Math.min(tracks.length, next + chunkSize);
+            List<AudioTrack> chunk = new ArrayList<>(end - next);
+            for (int i = next; i < end; i++) {
+                chunk.add(LazyTrack.of(manager, tracks[i]));
+                tracks[i] = null;
+            }
+
+            scheduler.queueAll(chunk, play);
+            play = false;
+            next = end;
+
+            if (progress != null) progress.accept(next);
+        } catch (Exception e) {
+            e.printStackTrace();
+            done.complete(next);
+            return;
+        }
+
+        if (next < tracks.length) {
+            executor.execute(this);
+        } else {
+            done.complete(next);
+        }
+    }
+}
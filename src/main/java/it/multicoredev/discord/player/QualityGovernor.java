@@ -0,0 +1,264 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration;
+import com.sedmelluq.discord.lavaplayer.player.AudioConfiguration.ResamplingQuality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class QualityGovernor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QualityGovernor.class);
+    private static final int OPUS_STEP = 2;
+
+    private final MusicPlayer player;
+    private final AudioConfiguration configuration;
+    private final Level[] levels;
+    private final Thresholds thresholds;
+    private final Map<Long, long[]> frames = new HashMap<>();
+    private final LongAdder loweredCount = new LongAdder();
+    private final LongAdder raisedCount = new LongAdder();
+    private volatile int level;
+    private volatile double cpu = -1;
+    private volatile double missRate;
+    private int pressure;
+    private int relief;
+
+    /**
+     * Steps the resampling and Opus encoding quality of the standard players down while the process is short of CPU or
+     * guilds are missing frames, and back up once it has recovered. A step down needs thresholds.downAfter overloaded
+     * samples in a row, a step up thresholds.upAfter calm ones, so the quality does not flap around a threshold.
+     * <p>
+     * Lavaplayer reads the configuration when a track starts, so a change applies from each guild's next track.
+     * Opus sources already in Discord's format are passed through untouched at any level.
+     */
+    public QualityGovernor(MusicPlayer player, AudioConfiguration configuration, Level[] levels, Thresholds thresholds) {
+        this.player = player;
+        this.configuration = configuration;
+        this.levels = levels;
+        this.thresholds = thresholds;
+
+        levels[0].apply(configuration);
+    }
+
+    public void start(ScheduledExecutorService scheduler, long intervalMs) {
+        if (levels.length < 2) return;
+        scheduler.scheduleWithFixedDelay(this::sample, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the current step, 0 being the best quality
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public Level getCurrent() {
+        return levels[level];
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+
+    /**
+     * @return the process CPU load of the last sample, between 0 and 1, or -1 if it is not available
+     */
+    public double getCpu() {
+        return cpu;
+    }
+
+    /**
+     * @return the share of send ticks without a frame ready over the last sample
+     */
+    public double getMissRate() {
+        return missRate;
+    }
+
+    public long getLowered() {
+        return loweredCount.sum();
+    }
+
+    public long getRaised() {
+        return raisedCount.sum();
+    }
+
+    private void sample() {
+        try {
+            cpu = readCpu();
+            missRate = readMissRate();
+
+            boolean overloaded = cpu >= thresholds.cpuHigh || missRate >= thresholds.missHigh;
+            boolean calm = (cpu < 0 || cpu < thresholds.cpuLow) && missRate < thresholds.missLow;
+
+            pressure = overloaded ? pressure + 1 : 0;
+            relief = calm ? relief + 1 : 0;
+
+            if (pressure >= thresholds.downAfter && level < levels.length - 1) {
+                change(level + 1, "lowered");
+                loweredCount.increment();
+            } else if (relief >= thresholds.upAfter && level > 0) {
+                change(level - 1, "raised");
+                raisedCount.increment();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void change(int next, String direction) {
+        level = next;
+        pressure = 0;
+        relief = 0;
+        levels[next].apply(configuration);
+
+        LOGGER.info("Audio quality {} to step {} of {} (resampling {}, opus {}): process cpu {}%, missed frames {}%.",
+                direction, next, levels.length - 1, levels[next].resampling, levels[next].opus,
+                cpu < 0 ? "n/a" : String.format("%.1f", cpu * 100), String.format("%.2f", missRate * 100));
+    }
+
+    private static double readCpu() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            if (load >= 0) return load;
+        }
+
+        return -1;
+    }
+
+    private double readMissRate() {
+        long[] totals = new long[2];
+
+        player.forEachManager((id, manager) -> {
+            GuildAudioSendHandler handler = manager.getSendHandler();
+            long provided = handler.getProvidedFrames();
+            long missed = handler.getMissedFrames();
+
+            long[] last = frames.get(id);
+            if (last == null) {
+                last = new long[3];
+                frames.put(id, last);
+            } else {
+                totals[0] += Math.max(0, provided - last[0]);
+                totals[1] += Math.max(0, missed - last[1]);
+            }
+
+            last[0] = provided;
+            last[1] = missed;
+            last[2] = 1;
+        });
+
+        // Forget guilds whose manager is gone
+        Iterator<long[]> iterator = frames.values().iterator();
+        while (iterator.hasNext()) {
+            long[] last = iterator.next();
+            if (last[2] == 0) iterator.remove();
+            else last[2] = 0;
+        }
+
+        long ticks = totals[0] + totals[1];
+        return ticks == 0 ? 0 : (double) totals[1] / ticks;
+    }
+
+    /**
+     * Builds the steps from the best quality to the worst allowed, lowering resampling and Opus quality in turn.
+     */
+    public static Level[] ladder(ResamplingQuality best, ResamplingQuality worst, int opusMax, int opusMin) {
+        List<Level> levels = new ArrayList<>();
+        int resampling = best.ordinal();
+        int opus = Math.max(0, Math.min(10, opusMax));
+        opusMin = Math.max(0, Math.min(opus, opusMin));
+        boolean resamplingTurn = true;
+
+        levels.add(new Level(ResamplingQuality.values()[resampling], opus));
+        while (resampling < worst.ordinal() || opus > opusMin) {
+            if ((resamplingTurn || opus <= opusMin) && resampling < worst.ordinal()) {
+                resampling++;
+            } else {
+                opus = Math.max(opusMin, opus - OPUS_STEP);
+            }
+
+            resamplingTurn = !resamplingTurn;
+            levels.add(new Level(ResamplingQuality.values()[resampling], opus));
+        }
+
+        return levels.toArray(new Level[0]);
+    }
+
+    public static final class Level {
+        private final ResamplingQuality resampling;
+        private final int opus;
+
+        public Level(ResamplingQuality resampling, int opus) {
+            this.resampling = resampling;
+            this.opus = opus;
+        }
+
+        public ResamplingQuality getResampling() {
+            return resampling;
+        }
+
+        public int getOpus() {
+            return opus;
+        }
+
+        public void apply(AudioConfiguration configuration) {
+            configuration.setResamplingQuality(resampling);
+            configuration.setOpusEncodingQuality(opus);
+        }
+    }
+
+    public static final class Thresholds {
+        private final double cpuHigh;
+        private final double cpuLow;
+        private final double missHigh;
+        private final double missLow;
+        private final int downAfter;
+        private final int upAfter;
+
+        /**
+         * @param cpuHigh  process CPU load, between 0 and 1, from which a sample counts as overloaded
+         * @param cpuLow   CPU load under which a sample counts as calm
+         * @param missHigh share of missed frames from which a sample counts as overloaded
+         * @param missLow  share of missed frames under which a sample counts as calm
+         */
+        public Thresholds(double cpuHigh, double cpuLow, double missHigh, double missLow, int downAfter, int upAfter) {
+            this.cpuHigh = cpuHigh;
+            this.cpuLow = Math.min(cpuLow, cpuHigh);
+            this.missHigh = missHigh;
+            this.missLow = Math.min(missLow, missHigh);
+            this.downAfter = Math.max(1, downAfter);
+            this.upAfter = Math.max(1, upAfter);
+        }
+    }
+}
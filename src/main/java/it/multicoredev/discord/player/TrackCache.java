@@ -0,0 +1,317 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TrackCache {
+    private static final int FILE_VERSION = 1;
+
+    private final AudioPlayerManager manager;
+    private final int maxEntries;
+    private final long ttlMs;
+    private final File file;
+    private final LinkedHashMap<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder hitNanos = new LongAdder();
+    private final LongAdder missNanos = new LongAdder();
+
+    public TrackCache(AudioPlayerManager manager, int maxEntries, long ttlMs, File file) {
+        this.manager = manager;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMs = ttlMs;
+        this.file = file;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > TrackCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Normalizes an identifier so trivially different spellings of the same URL share an entry:
+     * surrounding whitespace and fragments are dropped and the scheme and host are lowercased.
+     */
+    public static String normalize(String identifier) {
+        String id = identifier.trim();
+        int scheme = id.indexOf("://");
+        if (scheme <= 0) return id;
+
+        int fragment = id.indexOf('#');
+        if (fragment > 0) id = id.substring(0, fragment);
+
+        int hostEnd = id.length();
+        for (int i = scheme + 3; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '/' || c == '?') {
+                hostEnd = i;
+                break;
+            }
+        }
+
+        return id.substring(0, hostEnd).toLowerCase() + id.substring(hostEnd);
+    }
+
+    /**
+     * A track is decoded again, it is about to be played. A playlist's entries are {@link LazyTrack} placeholders
+     * sharing the cached bytes, decoded one at a time when they play.
+     *
+     * @return the track or playlist for the key, or null if it is missing or expired
+     */
+    public AudioItem get(String key) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) return null;
+
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+        }
+
+        try {
+            if (!entry.playlist) return decode(entry.tracks[0]);
+            return placeholders(entry);
+        } catch (IOException e) {
+            synchronized (this) {
+                entries.remove(key);
+            }
+            return null;
+        }
+    }
+
+    public void put(String key, AudioTrack track) {
+        try {
+            store(key, new Entry(null, false, new byte[][]{encode(track)}, null, System.currentTimeMillis() + ttlMs));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Caches a playlist. Its tracks are encoded once here and the bytes are shared with the placeholders returned,
+     * so the playlist can be queued without encoding every entry again.
+     *
+     * @return the playlist made of {@link LazyTrack} placeholders, or the playlist itself if it is not cached
+     */
+    public AudioPlaylist put(String key, AudioPlaylist playlist) {
+        if (playlist.isSearchResult() || playlist.getTracks().isEmpty()) return playlist;
+
+        try {
+            List<AudioTrack> tracks = playlist.getTracks();
+            byte[][] encoded = new byte[tracks.size()][];
+            AudioTrackInfo[] infos = new AudioTrackInfo[encoded.length];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = encode(tracks.get(i));
+                infos[i] = tracks.get(i).getInfo();
+            }
+
+            Entry entry = new Entry(playlist.getName(), true, encoded, infos, System.currentTimeMillis() + ttlMs);
+            store(key, entry);
+            return placeholders(entry);
+        } catch (IOException e) {
+            return playlist;
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public void recordHit(long nanos) {
+        hits.increment();
+        hitNanos.add(nanos);
+    }
+
+    public void recordMiss(long nanos) {
+        misses.increment();
+        missNanos.add(nanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getAverageHitMillis() {
+        long count = hits.sum();
+        return count == 0 ? 0 : hitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getAverageMissMillis() {
+        long count = misses.sum();
+        return count == 0 ? 0 : missNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public synchronized void load() throws IOException {
+        if (file == null || !file.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) return;
+
+            long now = System.currentTimeMillis();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long expiresAt = in.readLong();
+                boolean playlist = in.readBoolean();
+                String name = playlist ? in.readUTF() : null;
+                byte[][] tracks = new byte[in.readInt()][];
+
+                for (int j = 0; j < tracks.length; j++) {
+                    tracks[j] = new byte[in.readInt()];
+                    in.readFully(tracks[j]);
+                }
+
+                if (expiresAt > now) entries.put(key, new Entry(name, playlist, tracks, null, expiresAt));
+            }
+        }
+    }
+
+    public void save() throws IOException {
+        if (file == null) return;
+
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.entrySet());
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+
+            for (Map.Entry<String, Entry> mapping : snapshot) {
+                Entry entry = mapping.getValue();
+                out.writeUTF(mapping.getKey());
+                out.writeLong(entry.expiresAt);
+                out.writeBoolean(entry.playlist);
+                if (entry.playlist) out.writeUTF(entry.name == null ? "" : entry.name);
+                out.writeInt(entry.tracks.length);
+
+                for (byte[] track : entry.tracks) {
+                    out.writeInt(track.length);
+                    out.write(track);
+                }
+            }
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    private AudioPlaylist placeholders(Entry entry) throws IOException {
+        AudioTrackInfo[] infos = entry.getInfos();
+        List<AudioTrack> tracks = new ArrayList<>(entry.tracks.length);
+        for (int i = 0; i < entry.tracks.length; i++) {
+            tracks.add(new LazyTrack(manager, infos[i], entry.tracks[i]));
+        }
+
+        return new BasicAudioPlaylist(entry.name, tracks, null, false);
+    }
+
+    private byte[] encode(AudioTrack track) throws IOException {
+        if (track instanceof LazyTrack) return ((LazyTrack) track).getEncoded();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        manager.encodeTrack(new MessageOutput(out), track);
+        return out.toByteArray();
+    }
+
+    private AudioTrack decode(byte[] encoded) throws IOException {
+        DecodedTrackHolder holder = manager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+        if (holder == null || holder.decodedTrack == null) throw new IOException("Unable to decode cached track.");
+
+        return holder.decodedTrack;
+    }
+
+    private class Entry {
+        private final String name;
+        private final boolean playlist;
+        private final byte[][] tracks;
+        private final long expiresAt;
+        private AudioTrackInfo[] infos;
+
+        /**
+         * @param infos the info of every playlist entry, null to decode them on first use (entries read from the file)
+         */
+        private Entry(String name, boolean playlist, byte[][] tracks, AudioTrackInfo[] infos, long expiresAt) {
+            this.name = name;
+            this.playlist = playlist;
+            this.tracks = tracks;
+            this.infos = infos;
+            this.expiresAt = expiresAt;
+        }
+
+        private synchronized AudioTrackInfo[] getInfos() throws IOException {
+            if (infos == null) {
+                AudioTrackInfo[] decoded = new AudioTrackInfo[tracks.length];
+                for (int i = 0; i < tracks.length; i++) {
+                    decoded[i] = decode(tracks[i]).getInfo();
+                }
+
+                infos = decoded;
+            }
+
+            return infos;
+        }
+    }
+}
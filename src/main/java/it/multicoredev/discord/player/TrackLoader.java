@@ -0,0 +1,165 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import it.multicoredev.discord.metrics.HistogramFamily;
+import it.multicoredev.discord.metrics.LabeledCounter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TrackLoader {
+    private final AudioPlayerManager manager;
+    private final TrackCache cache;
+    private final HistogramFamily latency = new HistogramFamily();
+    private final LabeledCounter results = new LabeledCounter();
+
+    public TrackLoader(AudioPlayerManager manager, TrackCache cache) {
+        this.manager = manager;
+        this.cache = cache;
+    }
+
+    public TrackCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the time taken by lookups, labelled with the same outcomes as {@link #getResults()}
+     */
+    public HistogramFamily getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return loads counted by outcome: cached, track, playlist, no-matches or failed-&lt;severity&gt;
+     */
+    public LabeledCounter getResults() {
+        return results;
+    }
+
+    /**
+     * Resolves an identifier from the cache or the source managers. No ordering is enforced here, loads for a guild
+     * go through {@link LoadPipeline} which decides what runs and in which order the results are delivered.
+     *
+     * @return a future completed once the handler has been called
+     */
+    public CompletableFuture<Void> resolve(String identifier, AudioLoadResultHandler handler) {
+        String key = TrackCache.normalize(identifier);
+        long start = System.nanoTime();
+
+        if (cache != null) {
+            AudioItem item = cache.get(key);
+
+            if (item != null) {
+                cache.recordHit(System.nanoTime() - start);
+                record("cached", start);
+
+                try {
+                    if (item instanceof AudioTrack) {
+                        handler.trackLoaded((AudioTrack) item);
+                    } else {
+                        handler.playlistLoaded((AudioPlaylist) item);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        manager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                record("track", start);
+
+                if (cache != null) {
+                    cache.put(key, track);
+                    cache.recordMiss(System.nanoTime() - start);
+                }
+
+                try {
+                    handler.trackLoaded(track);
+                } finally {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                record("playlist", start);
+
+                AudioPlaylist loaded = playlist;
+                if (cache != null) {
+                    // The cache encodes the entries once and hands back placeholders sharing the bytes
+                    loaded = cache.put(key, playlist);
+                    cache.recordMiss(System.nanoTime() - start);
+                }
+
+                try {
+                    handler.playlistLoaded(loaded);
+                } finally {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void noMatches() {
+                record("no-matches", start);
+
+                if (cache != null) cache.recordMiss(System.nanoTime() - start);
+
+                try {
+                    handler.noMatches();
+                } finally {
+                    future.complete(null);
+                }
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                record("failed-" + exception.severity.name().toLowerCase(), start);
+
+                if (cache != null) cache.recordMiss(System.nanoTime() - start);
+
+                try {
+                    handler.loadFailed(exception);
+                } finally {
+                    future.complete(null);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    private void record(String result, long start) {
+        latency.get(result).record(System.nanoTime() - start);
+        results.increment(result);
+    }
+}
@@ -4,11 +4,19 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackState;
+import it.multicoredev.discord.collections.IndexedRing;
+import it.multicoredev.discord.journal.GuildJournal;
+import it.multicoredev.discord.journal.QueueSnapshot;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Copyright © 2020 by Lorenzo Magni
@@ -31,72 +39,380 @@ import java.util.concurrent.LinkedBlockingQueue;
  * THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class TrackScheduler extends AudioEventAdapter {
-    private final AudioPlayer player;
-    private final BlockingQueue<AudioTrack> queue;
+    private static final long PRELOAD_TOLERANCE = 250;
+
+    private final AudioPlayer primary;
+    private final AudioPlayer secondary;
+    private final ScheduledExecutorService executor;
+    private final long preloadMs;
+    private final IndexedRing<AudioTrack> queue;
+    private final AtomicReference<Preload> preload = new AtomicReference<>();
+    private volatile AudioPlayer active;
     private boolean loop;
+    private AudioTrack current;
+    private AudioTrack resumeTrack;
+    private ScheduledFuture<?> preloadTask;
+    private volatile GuildJournal journal;
+    private volatile OpusFrameCache frameCache;
 
-    public TrackScheduler(AudioPlayer player) {
-        this.player = player;
-        this.queue = new LinkedBlockingQueue<>();
+    /**
+     * Queue state is guarded by this scheduler's monitor. Player events are dispatched while the player holds its own
+     * track switch lock, so {@link #onTrackEnd} never takes the monitor: it hands the advance over to the executor.
+     * <p>
+     * When a standby player is given, the next queued track is started on it, paused, preloadMs before the playing one
+     * ends. The players are swapped from the track end event itself, so the send handler picks up the first frame of
+     * the next track on the same tick the previous one ran out.
+     */
+    public TrackScheduler(AudioPlayer player, AudioPlayer standby, ScheduledExecutorService executor, long preloadMs) {
+        this.primary = player;
+        this.secondary = standby;
+        this.active = player;
+        this.executor = executor;
+        this.preloadMs = preloadMs;
+        this.queue = new IndexedRing<>();
     }
 
-    public void queue(AudioTrack track) {
-        queue.offer(track);
+    /**
+     * @return the player currently producing audio
+     */
+    public AudioPlayer getPlayer() {
+        return active;
     }
 
-    public void queueAndPlay(AudioTrack track) {
-        if (!player.startTrack(track, true)) {
-            queue.offer(track);
-        }
+    /**
+     * Starts recording every queue mutation to the given journal.
+     */
+    public void setJournal(GuildJournal journal) {
+        this.journal = journal;
+        if (journal != null) journal.track(this::getPlayer);
+    }
+
+    /**
+     * Plays tracks whose frames are cached from the cache instead of their source, while the volume is 100.
+     */
+    public void setFrameCache(OpusFrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * Replaces the queue with a journaled snapshot. The track that was playing is resumed by the next
+     * {@link #playFirst()} or {@link #queueAndPlay(AudioTrack)}.
+     */
+    public synchronized void restore(QueueSnapshot snapshot) {
+        discardPreload();
+        queue.clear();
+        queue.addAll(snapshot.getQueue());
+        loop = snapshot.isLooping();
+        resumeTrack = snapshot.getCurrent();
+    }
+
+    public synchronized void queue(AudioTrack track) {
+        queue.add(track);
+        if (journal != null) journal.enqueue(track);
+        if (queue.size() == 1) schedulePreload();
     }
 
-    public void playFirst() {
-        if (loop) {
-            AudioTrack track = queue.poll();
-            if (track == null) return;
-            player.startTrack(track, false);
-            queue.offer(track.makeClone());
+    public synchronized void queueAndPlay(AudioTrack track) {
+        if (resume() || active.getPlayingTrack() != null) {
+            queue(track);
+            return;
+        }
+
+        AudioTrack playable = playable(track);
+        if (playable == null) return;
+
+        if (active.startTrack(playable, true)) {
+            current = playable;
+            if (journal != null) journal.play(playable);
+            schedulePreload();
         } else {
-            player.startTrack(queue.poll(), false);
+            queue(track);
         }
     }
 
-    public void nextTrack() {
-        if (loop) {
-            AudioTrack track = queue.poll();
-            if (track == null) return;
-            player.startTrack(track, false);
-            queue.offer(track.makeClone());
-        } else {
-            player.startTrack(queue.poll(), false);
+    /**
+     * Appends a chunk of tracks under a single acquisition of the monitor, starting the first one when requested and
+     * nothing is playing.
+     */
+    public synchronized void queueAll(List<AudioTrack> tracks, boolean play) {
+        for (int i = 0; i < tracks.size(); i++) {
+            if (play && i == 0) {
+                queueAndPlay(tracks.get(i));
+            } else {
+                queue(tracks.get(i));
+            }
         }
     }
 
-    public List<AudioTrack> getPlaylist() {
-        return new ArrayList<>(queue);
+    public synchronized void playFirst() {
+        if (resume()) return;
+        nextTrack();
     }
 
-    public void empty() {
-        player.stopTrack();
+    public synchronized void nextTrack() {
+        resumeTrack = null;
+
+        // A placeholder that can no longer be decoded is skipped; each skip is journaled like any other advance
+        for (int attempts = queue.size(); ; attempts--) {
+            if (journal != null) journal.next();
+
+            AudioTrack track = loop ? queue.rotate() : queue.poll();
+            if (track == null) {
+                if (!loop) start(null);
+                return;
+            }
+
+            AudioTrack playable = playable(track);
+            if (playable != null || attempts <= 1) {
+                start(playable);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips straight to the track at the given queue index. Skipped tracks are dropped, or kept at the end when looping.
+     */
+    public synchronized boolean jump(int index) {
+        if (index < 0 || index >= queue.size()) return false;
+
+        queue.advance(index, loop);
+        if (journal != null) journal.jump(index);
+        nextTrack();
+        return true;
+    }
+
+    public synchronized AudioTrack remove(int index) {
+        if (index < 0 || index >= queue.size()) return null;
+
+        AudioTrack track = queue.remove(index);
+        if (journal != null) journal.remove(index);
+        if (index == 0) refreshPreload();
+        return track;
+    }
+
+    public synchronized boolean move(int from, int to) {
+        if (from < 0 || from >= queue.size() || to < 0 || to >= queue.size()) return false;
+
+        queue.move(from, to);
+        if (journal != null) journal.move(from, to);
+        if (from == 0 || to == 0) refreshPreload();
+        return true;
+    }
+
+    public synchronized void shuffle() {
+        long seed = ThreadLocalRandom.current().nextLong();
+        queue.shuffle(new Random(seed));
+        if (journal != null) journal.shuffle(seed);
+        refreshPreload();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Copies only the requested page of the queue.
+     */
+    public synchronized List<AudioTrack> getPage(int from, int count) {
+        return queue.subList(from, count);
+    }
+
+    public synchronized List<AudioTrack> getPlaylist() {
+        List<AudioTrack> playlist = new ArrayList<>(queue.size());
+        queue.forEach(playlist::add);
+        return playlist;
+    }
+
+    public synchronized void stop() {
+        discardPreload();
+        active.stopTrack();
+    }
+
+    public synchronized void empty() {
+        resumeTrack = null;
+        current = null;
+        discardPreload();
+        active.stopTrack();
         queue.clear();
+        if (journal != null) journal.empty();
+    }
+
+    /**
+     * Detaches the journal and drops any preload before the players are destroyed, so tearing them down is not
+     * journaled as a stop.
+     */
+    public synchronized void close() {
+        journal = null;
+        discardPreload();
     }
 
-    public void setLooping(boolean loop) {
+    public synchronized boolean isIdle() {
+        return queue.isEmpty() && active.getPlayingTrack() == null && resumeTrack == null;
+    }
+
+    public synchronized void setLooping(boolean loop) {
         this.loop = loop;
+        if (journal != null) journal.loop(loop);
     }
 
-    public void updateLooping() {
-        loop = !loop;
+    public synchronized void updateLooping() {
+        setLooping(!loop);
     }
 
-    public boolean isLooping() {
+    public synchronized boolean isLooping() {
         return loop;
     }
 
+    public void setVolume(int volume) {
+        primary.setVolume(volume);
+        if (secondary != null) secondary.setVolume(volume);
+    }
+
+    private void start(AudioTrack track) {
+        discardPreload();
+        current = track;
+        active.startTrack(track, false);
+        schedulePreload();
+    }
+
+    private boolean resume() {
+        AudioTrack track = resumeTrack;
+        if (track == null) return false;
+
+        resumeTrack = null;
+        if (!active.startTrack(track, true)) return false;
+
+        current = track;
+        schedulePreload();
+        return true;
+    }
+
+    /**
+     * A looping queue keeps its stored tracks; a track instance can only be played once, so a clone is made only
+     * when the stored one has already been played. Placeholders are decoded into a fresh track every time.
+     *
+     * @return the track to start, or null if a placeholder could not be decoded
+     */
+    private AudioTrack playable(AudioTrack track) {
+        OpusFrameCache frameCache = this.frameCache;
+        if (frameCache != null && active.getVolume() == 100) {
+            AudioTrack cached = frameCache.open(track);
+            if (cached != null) return cached;
+        }
+
+        if (track instanceof LazyTrack) return ((LazyTrack) track).resolve();
+        return track.getState() == AudioTrackState.INACTIVE ? track : track.makeClone();
+    }
+
+    private synchronized void advanceAfter(AudioTrack ended) {
+        if (current != ended) return;
+        nextTrack();
+    }
+
+    private void refreshPreload() {
+        Preload pending = preload.get();
+        if (pending != null && (queue.isEmpty() || queue.get(0) != pending.source)) {
+            discardPreload();
+            schedulePreload();
+        }
+    }
+
+    private void schedulePreload() {
+        if (secondary == null || preloadMs <= 0) return;
+
+        AudioTrack track = current;
+        if (track == null || preload.get() != null || track.getDuration() == Long.MAX_VALUE) return;
+
+        if (preloadTask != null) preloadTask.cancel(false);
+        long delay = track.getDuration() - track.getPosition() - preloadMs;
+        preloadTask = executor.schedule(() -> preloadIfDue(track), Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void preloadIfDue(AudioTrack track) {
+        if (current != track || preload.get() != null || queue.isEmpty()) return;
+
+        if (track.getDuration() - track.getPosition() > preloadMs + PRELOAD_TOLERANCE) {
+            // Paused or seeked back since the preload was scheduled
+            schedulePreload();
+            return;
+        }
+
+        AudioTrack source = queue.get(0);
+        AudioTrack next = playable(source);
+        if (next == null) return;
+
+        AudioPlayer standby = active == primary ? secondary : primary;
+
+        standby.setPaused(true);
+        if (!standby.startTrack(next, false)) return;
+
+        // Counts as a request for audio, so the manager's cleanup does not stop the track of an unpolled player
+        standby.provide();
+        preload.set(new Preload(source, next, standby));
+    }
+
+    private void discardPreload() {
+        if (preloadTask != null) {
+            preloadTask.cancel(false);
+            preloadTask = null;
+        }
+
+        Preload pending = preload.getAndSet(null);
+        if (pending != null) pending.player.stopTrack();
+    }
+
+    private synchronized void promote(AudioTrack ended, Preload handoff) {
+        if (current != ended) return;
+
+        current = handoff.track;
+        if (!queue.isEmpty() && queue.get(0) == handoff.source) {
+            if (journal != null) journal.next();
+            if (loop) queue.rotate();
+            else queue.poll();
+        } else if (journal != null) {
+            journal.play(handoff.track);
+        }
+
+        schedulePreload();
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+        // The standby player only ends tracks when a preload is thrown away
+        if (player != active) return;
+
+        GuildJournal journal = this.journal;
+        if (endReason == AudioTrackEndReason.STOPPED && journal != null) {
+            journal.stop();
+        }
+
+        if (endReason == AudioTrackEndReason.FINISHED) {
+            Preload handoff = preload.getAndSet(null);
+            if (handoff != null && handoff.player.getPlayingTrack() == handoff.track) {
+                handoff.player.setPaused(player.isPaused());
+                active = handoff.player;
+                executor.execute(() -> promote(track, handoff));
+                return;
+            }
+
+            if (handoff != null) executor.execute(handoff.player::stopTrack);
+        }
+
         if (endReason.mayStartNext) {
-            nextTrack();
+            executor.execute(() -> advanceAfter(track));
+        }
+    }
+
+    private static final class Preload {
+        private final AudioTrack source;
+        private final AudioTrack track;
+        private final AudioPlayer player;
+
+        private Preload(AudioTrack source, AudioTrack track, AudioPlayer player) {
+            this.source = source;
+            this.track = track;
+            this.player = player;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package it.multicoredev.discord.player;
+
+import net.dv8tion.jda.api.audio.hooks.ConnectionListener;
+import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.api.entities.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class VoiceConnectionListener implements ConnectionListener {
+    private final List<Runnable> connectedCallbacks = new ArrayList<>();
+    private volatile ConnectionStatus status = ConnectionStatus.NOT_CONNECTED;
+    private volatile long ping = -1;
+
+    /**
+     * Runs the callback as soon as the voice connection is established, or right away if it already is.
+     */
+    public void whenConnected(Runnable callback) {
+        synchronized (connectedCallbacks) {
+            if (status != ConnectionStatus.CONNECTED) {
+                connectedCallbacks.add(callback);
+                return;
+            }
+        }
+
+        callback.run();
+    }
+
+    public ConnectionStatus getStatus() {
+        return status;
+    }
+
+    public long getPing() {
+        return ping;
+    }
+
+    @Override
+    public void onPing(long ping) {
+        this.ping = ping;
+    }
+
+    @Override
+    public void onStatusChange(ConnectionStatus status) {
+        List<Runnable> callbacks;
+
+        synchronized (connectedCallbacks) {
+            this.status = status;
+            if (status != ConnectionStatus.CONNECTED || connectedCallbacks.isEmpty()) return;
+
+            callbacks = new ArrayList<>(connectedCallbacks);
+            connectedCallbacks.clear();
+        }
+
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void onUserSpeaking(User user, boolean speaking) {
+    }
+}
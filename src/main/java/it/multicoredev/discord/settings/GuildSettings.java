@@ -0,0 +1,128 @@
+package it.multicoredev.discord.settings;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class GuildSettings {
+    private static final int VERSION = 2;
+
+    private final long guildId;
+    private final GuildSettingsStore store;
+    private boolean autostart;
+    private long channel;
+    private Boolean loop;
+    private List<String> playlist = Collections.emptyList();
+
+    GuildSettings(long guildId, GuildSettingsStore store) {
+        this.guildId = guildId;
+        this.store = store;
+    }
+
+    public long getGuildId() {
+        return guildId;
+    }
+
+    public synchronized boolean isAutostart() {
+        return autostart;
+    }
+
+    public void setAutostart(boolean autostart) {
+        synchronized (this) {
+            this.autostart = autostart;
+        }
+        store.markDirty(this);
+    }
+
+    /**
+     * @return the voice channel joined on autostart or 0 if none was set
+     */
+    public synchronized long getChannel() {
+        return channel;
+    }
+
+    public void setChannel(long channel) {
+        synchronized (this) {
+            this.channel = channel;
+        }
+        store.markDirty(this);
+    }
+
+    /**
+     * @return the saved loop state or null if the guild never toggled it
+     */
+    public synchronized Boolean getLoop() {
+        return loop;
+    }
+
+    public void setLoop(boolean loop) {
+        synchronized (this) {
+            this.loop = loop;
+        }
+        store.markDirty(this);
+    }
+
+    public synchronized List<String> getPlaylist() {
+        return playlist;
+    }
+
+    public void setPlaylist(List<String> playlist) {
+        synchronized (this) {
+            this.playlist = Collections.unmodifiableList(new ArrayList<>(playlist));
+        }
+        store.markDirty(this);
+    }
+
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeBoolean(autostart);
+        out.writeLong(channel);
+        out.writeByte(loop == null ? -1 : loop ? 1 : 0);
+        out.writeInt(playlist.size());
+        for (String url : playlist) {
+            out.writeUTF(url);
+        }
+    }
+
+    synchronized void read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION && version != 1) throw new IOException("Unsupported guild settings version " + version);
+
+        autostart = in.readBoolean();
+        channel = in.readLong();
+        byte loop = in.readByte();
+        this.loop = loop < 0 ? null : loop == 1;
+        // Version 1 stored a buffer depth, it lives in config.yml now
+        if (version == 1) in.readInt();
+
+        int size = in.readInt();
+        List<String> playlist = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            playlist.add(in.readUTF());
+        }
+        this.playlist = Collections.unmodifiableList(playlist);
+    }
+}
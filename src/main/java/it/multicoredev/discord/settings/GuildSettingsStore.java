@@ -0,0 +1,225 @@
+package it.multicoredev.discord.settings;
+
+import it.multicoredev.discord.collections.LongConcurrentMap;
+import it.multicoredev.mclib.yaml.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class GuildSettingsStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GuildSettingsStore.class);
+    private static final String EXTENSION = ".settings";
+
+    private final File directory;
+    private final ScheduledExecutorService scheduler;
+    private final long flushDelay;
+    private final LongConcurrentMap<GuildSettings> settings = new LongConcurrentMap<>();
+    private final ConcurrentHashMap<Long, GuildSettings> dirty = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    public GuildSettingsStore(File directory, ScheduledExecutorService scheduler, long flushDelay) {
+        this.directory = directory;
+        this.scheduler = scheduler;
+        this.flushDelay = Math.max(0, flushDelay);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create guild settings directory " + directory);
+        }
+    }
+
+    public boolean exists(long guildId) {
+        return settings.containsKey(guildId) || getFile(guildId).exists();
+    }
+
+    /**
+     * Returns the settings of a guild, reading them from disk the first time they are asked for.
+     */
+    public GuildSettings get(long guildId) {
+        GuildSettings cached = settings.get(guildId);
+        if (cached != null) return cached;
+
+        // Forgotten before its last change was written: the file is stale, keep using the changed settings
+        GuildSettings unsaved = dirty.get(guildId);
+        if (unsaved != null) return settings.computeIfAbsent(guildId, id -> unsaved);
+
+        GuildSettings loaded = new GuildSettings(guildId, this);
+        File file = getFile(guildId);
+
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                loaded.read(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return settings.computeIfAbsent(guildId, id -> loaded);
+    }
+
+    /**
+     * Moves the guild settings that older versions kept in config.yml into the store and removes them from the
+     * config. Buffer depth overrides are still read from config.yml and stay there.
+     */
+    public void migrate(Configuration config) {
+        if (!config.contains("guilds")) return;
+
+        int migrated = 0;
+        boolean changed = false;
+        // Copied, entries are removed from the section while going through it
+        for (String key : new ArrayList<>(config.getSection("guilds").getKeys())) {
+            long id;
+            try {
+                id = Long.parseLong(key);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String path = "guilds." + key + ".";
+            if (!config.contains(path + "autostart") && !config.contains(path + "channel") && !config.contains(path + "loop")
+                    && !config.contains(path + "playlist")) {
+                continue;
+            }
+
+            if (!exists(id)) {
+                GuildSettings guild = get(id);
+                guild.setAutostart(config.getBoolean(path + "autostart", false));
+
+                String channel = config.getString(path + "channel", "");
+                if (channel != null && !channel.isEmpty()) {
+                    try {
+                        guild.setChannel(Long.parseLong(channel));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+
+                if (config.contains(path + "loop")) guild.setLoop(config.getBoolean(path + "loop"));
+                if (config.contains(path + "playlist")) guild.setPlaylist(config.getStringList(path + "playlist"));
+                migrated++;
+            }
+
+            if (config.contains(path + "buffer-depth")) {
+                config.set(path + "autostart", null);
+                config.set(path + "channel", null);
+                config.set(path + "loop", null);
+                config.set(path + "playlist", null);
+            } else {
+                config.set("guilds." + key, null);
+            }
+            changed = true;
+        }
+
+        if (!changed) return;
+
+        flush();
+
+        try {
+            config.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        LOGGER.info("Migrated {} guilds from config.yml to {}.", migrated, directory);
+    }
+
+    /**
+     * Writes every guild changed since the last flush, each through a temporary file and an atomic replace.
+     */
+    public void flush() {
+        flushScheduled.set(false);
+
+        for (Long id : dirty.keySet()) {
+            GuildSettings guild = dirty.remove(id);
+            if (guild == null) continue;
+
+            try {
+                write(guild);
+            } catch (IOException e) {
+                e.printStackTrace();
+                markDirty(guild);
+            }
+        }
+    }
+
+    /**
+     * Writes the guild's pending changes on the store's executor and drops it from memory; it is read from disk again
+     * the next time it is asked for.
+     */
+    public void forget(long guildId) {
+        GuildSettings cached = settings.get(guildId);
+        if (cached == null) return;
+
+        scheduler.execute(() -> {
+            GuildSettings guild = dirty.remove(guildId);
+
+            if (guild != null) {
+                try {
+                    write(guild);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    markDirty(guild);
+                    return;
+                }
+            }
+
+            settings.remove(guildId, cached);
+        });
+    }
+
+    void markDirty(GuildSettings guild) {
+        dirty.put(guild.getGuildId(), guild);
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write(GuildSettings guild) throws IOException {
+        File file = getFile(guild.getGuildId());
+        File temp = new File(directory, guild.getGuildId() + EXTENSION + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            guild.write(out);
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(long guildId) {
+        return new File(directory, guildId + EXTENSION);
+    }
+}
@@ -0,0 +1,187 @@
+package it.multicoredev.discord.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright © 2020 by Lorenzo Magni
+ * This file is part of MusicCore.
+ * MusicCore is under "The 3-Clause BSD License", you can find a copy <a href="https://opensource.org/licenses/BSD-3-Clause">here</a>.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING,
+ * BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ * OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TrackCacheTest {
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    public void expiredEntriesAreDropped() {
+        TrackCache cache = new TrackCache(manager(), 10, -1, null);
+        cache.put("a", track("a"));
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void liveEntriesAreDecodedAgain() {
+        TrackCache cache = new TrackCache(manager(), 10, HOUR, null);
+        cache.put("a", track("a"));
+
+        AudioItem item = cache.get("a");
+        assertTrue(item instanceof AudioTrack);
+        assertEquals("a", ((AudioTrack) item).getIdentifier());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        TrackCache cache = new TrackCache(manager(), 2, HOUR, null);
+        cache.put("a", track("a"));
+        cache.put("b", track("b"));
+        assertNotNull(cache.get("a"));
+        cache.put("c", track("c"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void savedEntriesAreLoaded() throws IOException {
+        File file = File.createTempFile("tracks", ".cache");
+        file.deleteOnExit();
+
+        TrackCache cache = new TrackCache(manager(), 10, HOUR, file);
+        cache.put("a", track("a"));
+        cache.put("list", new BasicAudioPlaylist("list", Arrays.asList(track("b"), track("c")), null, false));
+        cache.save();
+
+        TrackCache loaded = new TrackCache(manager(), 10, HOUR, file);
+        loaded.load();
+
+        assertEquals(2, loaded.size());
+        assertEquals("a", ((AudioTrack) loaded.get("a")).getIdentifier());
+
+        AudioPlaylist playlist = (AudioPlaylist) loaded.get("list");
+        assertEquals("list", playlist.getName());
+        assertEquals(2, playlist.getTracks().size());
+        assertEquals("c", playlist.getTracks().get(1).getIdentifier());
+        assertEquals("c", ((LazyTrack) playlist.getTracks().get(1)).resolve().getIdentifier());
+    }
+
+    @Test
+    public void playlistEntriesShareTheCachedBytes() {
+        TrackCache cache = new TrackCache(manager(), 10, HOUR, null);
+        AudioPlaylist put = cache.put("list", new BasicAudioPlaylist("list", Arrays.asList(track("b"), track("c")), null, false));
+        AudioPlaylist got = (AudioPlaylist) cache.get("list");
+
+        assertTrue(put.getTracks().get(0) instanceof LazyTrack);
+        assertEquals("b", got.getTracks().get(0).getIdentifier());
+        assertSame(((LazyTrack) put.getTracks().get(0)).getEncoded(), ((LazyTrack) got.getTracks().get(0)).getEncoded());
+        assertEquals("b", ((LazyTrack) got.getTracks().get(0)).resolve().getIdentifier());
+    }
+
+    @Test
+    public void searchResultsAreNotCached() {
+        TrackCache cache = new TrackCache(manager(), 10, HOUR, null);
+        AudioPlaylist search = new BasicAudioPlaylist("search", Arrays.asList(track("b")), null, true);
+
+        assertSame(search, cache.put("search", search));
+        assertNull(cache.get("search"));
+    }
+
+    @Test
+    public void expiredEntriesAreNotLoaded() throws IOException, InterruptedException {
+        File file = File.createTempFile("tracks", ".cache");
+        file.deleteOnExit();
+
+        TrackCache cache = new TrackCache(manager(), 10, 1, file);
+        cache.put("a", track("a"));
+        cache.save();
+        Thread.sleep(10);
+
+        TrackCache loaded = new TrackCache(manager(), 10, HOUR, file);
+        loaded.load();
+
+        assertEquals(0, loaded.size());
+    }
+
+    @Test
+    public void missingFileLoadsNothing() throws IOException {
+        TrackCache cache = new TrackCache(manager(), 10, HOUR, new File("missing-" + System.nanoTime() + ".cache"));
+        cache.load();
+
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Encodes a track as its identifier, enough for the cache which only stores the bytes.
+     */
+    private static AudioPlayerManager manager() {
+        return (AudioPlayerManager) Proxy.newProxyInstance(AudioPlayerManager.class.getClassLoader(), new Class[]{AudioPlayerManager.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "encodeTrack":
+                            MessageOutput output = (MessageOutput) args[0];
+                            DataOutput out = output.startMessage();
+                            out.writeUTF(((AudioTrack) args[1]).getIdentifier());
+                            output.commitMessage();
+                            return null;
+                        case "decodeTrack":
+                            DataInput in = ((MessageInput) args[0]).nextMessage();
+                            return in == null ? null : new DecodedTrackHolder(track(in.readUTF()));
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static AudioTrack track(String identifier) {
+        AudioTrackInfo info = new AudioTrackInfo(identifier, "", 1000, identifier, false, identifier);
+        return (AudioTrack) Proxy.newProxyInstance(AudioTrack.class.getClassLoader(), new Class[]{AudioTrack.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getIdentifier":
+                            return identifier;
+                        case "getInfo":
+                            return info;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}